@@ -0,0 +1,234 @@
+package com.belajarjava;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.lang.System.out;
+
+/**
+ * AccountBook - buku rekening dengan layout struct-of-arrays.
+ *
+ * Alih-alih satu objek SavingsAccount per rekening, semua saldo disimpan di
+ * satu array long (dalam sen) dan semua suku bunga di satu array int (dalam
+ * basis poin per tahun, 1 bp = 0,01%). Rekening ke-i adalah indeks i di kedua
+ * array. Perhitungan bunga akhir bulan cukup membaca dua array secara
+ * berurutan, sehingga CPU bisa memanfaatkan cache dan prefetch.
+ *
+ * AccountBook tidak thread-safe: accrueMonthlyInterest() diharapkan berjalan
+ * saat tidak ada transaksi lain (misalnya proses tutup buku).
+ */
+class AccountBook {
+    // Ukuran potongan yang diproses satu task fork/join (sekitar 192 KB data)
+    static final int CHUNK_SIZE = 16_384;
+
+    private static final long BASIS_POINTS_PER_YEAR = 10_000L * 12;
+
+    private long[] balancesMinor;
+    private int[] annualRateBasisPoints;
+    private int size;
+
+    public AccountBook(int initialCapacity) {
+        this.balancesMinor = new long[Math.max(16, initialCapacity)];
+        this.annualRateBasisPoints = new int[balancesMinor.length];
+    }
+
+    /**
+     * Menambah rekening dan mengembalikan indeksnya.
+     */
+    public int addAccount(long initialBalanceMinor, int annualRateBasisPoints) {
+        if (initialBalanceMinor < 0 || annualRateBasisPoints < 0) {
+            throw new IllegalArgumentException("Saldo dan suku bunga tidak boleh negatif");
+        }
+        if (size == balancesMinor.length) {
+            int capacity = balancesMinor.length * 2;
+            balancesMinor = Arrays.copyOf(balancesMinor, capacity);
+            this.annualRateBasisPoints = Arrays.copyOf(this.annualRateBasisPoints, capacity);
+        }
+        balancesMinor[size] = initialBalanceMinor;
+        this.annualRateBasisPoints[size] = annualRateBasisPoints;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Tampilan seperti SavingsAccount untuk satu rekening; tidak menyalin data.
+     */
+    public BankAccount account(int index) {
+        checkIndex(index);
+        return new AccountView(index);
+    }
+
+    public long getBalanceMinor(int index) {
+        checkIndex(index);
+        return balancesMinor[index];
+    }
+
+    public int getAnnualRateBasisPoints(int index) {
+        checkIndex(index);
+        return annualRateBasisPoints[index];
+    }
+
+    /**
+     * Menambahkan bunga satu bulan ke semua rekening secara paralel.
+     *
+     * @return total bunga yang dibayarkan, dalam sen
+     */
+    public long accrueMonthlyInterest() {
+        return accrueMonthlyInterest(ForkJoinPool.commonPool());
+    }
+
+    public long accrueMonthlyInterest(ForkJoinPool pool) {
+        return pool.invoke(new AccrualTask(balancesMinor, annualRateBasisPoints, 0, size));
+    }
+
+    /**
+     * Bunga bulanan satu rekening, dibulatkan half-up ke sen terdekat.
+     */
+    static long monthlyInterest(long balanceMinor, int annualRateBasisPoints) {
+        long product = balanceMinor * annualRateBasisPoints;
+        if (Math.multiplyHigh(balanceMinor, annualRateBasisPoints) != 0 || product < 0) {
+            // Saldo sangat besar: hitung dengan BigDecimal agar tidak overflow
+            return BigDecimal.valueOf(balanceMinor)
+                .multiply(BigDecimal.valueOf(annualRateBasisPoints))
+                .divide(BigDecimal.valueOf(BASIS_POINTS_PER_YEAR), 0, RoundingMode.HALF_UP)
+                .longValueExact();
+        }
+        return (product + BASIS_POINTS_PER_YEAR / 2) / BASIS_POINTS_PER_YEAR;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Rekening tidak ada: " + index);
+        }
+    }
+
+    /**
+     * Membagi rentang rekening menjadi dua sampai cukup kecil, lalu memproses
+     * potongan itu dengan loop sederhana atas kedua array.
+     */
+    private static final class AccrualTask extends RecursiveTask<Long> {
+        private final long[] balances;
+        private final int[] rates;
+        private final int from;
+        private final int to;
+
+        AccrualTask(long[] balances, int[] rates, int from, int to) {
+            this.balances = balances;
+            this.rates = rates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= CHUNK_SIZE) {
+                long total = 0;
+                for (int i = from; i < to; i++) {
+                    long interest = monthlyInterest(balances[i], rates[i]);
+                    balances[i] += interest;
+                    total += interest;
+                }
+                return total;
+            }
+            int middle = (from + to) >>> 1;
+            AccrualTask left = new AccrualTask(balances, rates, from, middle);
+            left.fork();
+            long right = new AccrualTask(balances, rates, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * View rekening di atas array AccountBook.
+     */
+    private final class AccountView implements BankAccount {
+        private final int index;
+
+        AccountView(int index) {
+            this.index = index;
+        }
+
+        // Dicek setelah dibulatkan ke sen, seperti ConcurrentSavingsAccount: NaN dan jumlah
+        // yang menjadi 0 sen diabaikan
+        @Override
+        public void deposit(double amount) {
+            long amountMinor = amount > 0 ? ConcurrentSavingsAccount.toMinorUnits(amount) : 0;
+            if (amountMinor > 0) {
+                balancesMinor[index] = Math.addExact(balancesMinor[index], amountMinor);
+            }
+        }
+
+        @Override
+        public boolean withdraw(double amount) {
+            long amountMinor = amount > 0 ? ConcurrentSavingsAccount.toMinorUnits(amount) : 0;
+            if (amountMinor > 0 && balancesMinor[index] >= amountMinor) {
+                balancesMinor[index] -= amountMinor;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public double getBalance() {
+            return (double) balancesMinor[index] / ConcurrentSavingsAccount.MINOR_UNITS_PER_UNIT;
+        }
+    }
+}
+
+/**
+ * InterestAccrualBenchmark - membandingkan rekening/detik antara AccountBook
+ * (struct-of-arrays, fork/join) dan iterasi objek BankAccount satu per satu.
+ *
+ * Jalankan: java com.belajarjava.InterestAccrualBenchmark [jumlahRekening]
+ */
+class InterestAccrualBenchmark {
+
+    public static void main(String[] args) {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        SplittableRandom random = new SplittableRandom(42);
+
+        AccountBook book = new AccountBook(accounts);
+        List<BankAccount> objects = new ArrayList<>(accounts);
+        int[] objectRates = new int[accounts];
+        for (int i = 0; i < accounts; i++) {
+            long balance = random.nextLong(10_000_000);
+            int rate = 100 + random.nextInt(400);
+            book.addAccount(balance, rate);
+            objects.add(new ConcurrentSavingsAccount("ACC-" + i, "Nasabah " + i, balance));
+            objectRates[i] = rate;
+        }
+
+        for (int round = 1; round <= 5; round++) {
+            long begin = System.nanoTime();
+            long bookInterest = book.accrueMonthlyInterest();
+            long bookNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            long objectInterest = 0;
+            for (int i = 0; i < accounts; i++) {
+                ConcurrentSavingsAccount account = (ConcurrentSavingsAccount) objects.get(i);
+                long interest = AccountBook.monthlyInterest(account.getBalanceMinor(), objectRates[i]);
+                if (interest > 0) {
+                    account.depositMinor(interest);
+                }
+                objectInterest += interest;
+            }
+            long objectNanos = System.nanoTime() - begin;
+
+            if (bookInterest != objectInterest) {
+                throw new IllegalStateException("Total bunga berbeda: " + bookInterest + " vs " + objectInterest);
+            }
+            out.printf("Bulan %d: AccountBook %,.0f rekening/detik, objek BankAccount %,.0f rekening/detik%n",
+                round, accounts * 1e9 / bookNanos, accounts * 1e9 / objectNanos);
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package com.belajarjava;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+import static java.lang.System.out;
+
+/**
+ * AccountEventStore - penyimpanan event-sourced untuk rekening tabungan.
+ *
+ * Setiap setoran dan penarikan dicatat sebagai event biner yang ringkas
+ * (4 byte checksum CRC32C + 1 byte tipe + 4 byte id rekening + 8 byte jumlah
+ * dalam sen), bukan sebagai objek di heap. Di memori hanya disimpan saldo
+ * terakhir dalam array long.
+ *
+ * Saat dibuka, log dibaca sampai event pertama yang terpotong atau rusak
+ * (checksum salah, tipe tidak dikenal, misalnya ekor yang berisi nol setelah
+ * crash); log dipotong di situ dan event berikutnya ditulis mulai dari sana.
+ *
+ * Rekening dibagi ke beberapa partisi; setiap partisi punya file log dan
+ * snapshot sendiri. Snapshot menyimpan semua saldo beserta posisi log saat
+ * itu, sehingga membangun ulang hanya perlu membaca snapshot dan ekor log.
+ * Partisi dibangun ulang secara paralel.
+ */
+class AccountEventStore implements Closeable {
+    static final byte OPENED = 1;
+    static final byte DEPOSITED = 2;
+    static final byte WITHDRAWN = 3;
+
+    // Checksum + tipe + id rekening + jumlah; OPENED menambah panjang dan nomor rekening
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int EVENT_BYTES = CHECKSUM_BYTES + 13;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL = 1_000_000;
+
+    private final Partition[] partitions;
+    private final long snapshotInterval;
+
+    /**
+     * Event yang dibaca kembali dari log, untuk keperluan audit.
+     */
+    record AccountEvent(byte type, int accountId, long amountMinor, String accountNumber) {}
+
+    private AccountEventStore(Path directory, int partitionCount, long snapshotInterval) throws IOException {
+        this.snapshotInterval = snapshotInterval;
+        Files.createDirectories(directory);
+        this.partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i, directory);
+        }
+        rebuild();
+    }
+
+    /**
+     * Membuka (atau membuat) store di direktori tersebut dan membangun ulang
+     * semua saldo dari snapshot dan log.
+     */
+    public static AccountEventStore open(Path directory, int partitionCount) throws IOException {
+        return open(directory, partitionCount, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    public static AccountEventStore open(Path directory, int partitionCount, long snapshotInterval)
+            throws IOException {
+        if (partitionCount < 1 || snapshotInterval < 1) {
+            throw new IllegalArgumentException("Jumlah partisi dan interval snapshot minimal 1");
+        }
+        // Jumlah partisi harus sama dengan saat store dibuat
+        Path meta = directory.resolve("partitions");
+        if (Files.exists(meta)) {
+            int existing = Integer.parseInt(Files.readString(meta).trim());
+            if (existing != partitionCount) {
+                throw new IllegalArgumentException("Store dibuat dengan " + existing + " partisi");
+            }
+        } else {
+            Files.createDirectories(directory);
+            Files.writeString(meta, Integer.toString(partitionCount));
+        }
+        return new AccountEventStore(directory, partitionCount, snapshotInterval);
+    }
+
+    /**
+     * Membuka rekening baru dan mengembalikan tampilan SavingsAccount-nya.
+     */
+    public EventSourcedSavingsAccount openAccount(String accountNumber, long initialBalanceMinor) {
+        if (initialBalanceMinor < 0) {
+            throw new IllegalArgumentException("Saldo awal tidak boleh negatif");
+        }
+        int partitionIndex = Math.floorMod(accountNumber.hashCode(), partitions.length);
+        Partition partition = partitions[partitionIndex];
+        synchronized (partition) {
+            int local = partition.count;
+            int accountId = local * partitions.length + partitionIndex;
+            partition.ensureCapacity(local + 1);
+            partition.count++;
+            partition.balances[local] = initialBalanceMinor;
+            appendLocked(partition, OPENED, accountId, initialBalanceMinor,
+                accountNumber.getBytes(StandardCharsets.UTF_8));
+            return new EventSourcedSavingsAccount(this, accountId);
+        }
+    }
+
+    /**
+     * Tampilan SavingsAccount untuk rekening yang sudah ada.
+     */
+    public EventSourcedSavingsAccount account(int accountId) {
+        Partition partition = partitionOf(accountId);
+        synchronized (partition) {
+            if (accountId / partitions.length >= partition.count) {
+                throw new IllegalArgumentException("Rekening tidak ditemukan: " + accountId);
+            }
+        }
+        return new EventSourcedSavingsAccount(this, accountId);
+    }
+
+    public long accountCount() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                total += partition.count;
+            }
+        }
+        return total;
+    }
+
+    long balanceOf(int accountId) {
+        Partition partition = partitionOf(accountId);
+        synchronized (partition) {
+            return partition.balances[accountId / partitions.length];
+        }
+    }
+
+    void deposit(int accountId, long amountMinor) {
+        Partition partition = partitionOf(accountId);
+        synchronized (partition) {
+            int local = accountId / partitions.length;
+            partition.balances[local] = Math.addExact(partition.balances[local], amountMinor);
+            appendLocked(partition, DEPOSITED, accountId, amountMinor, null);
+        }
+    }
+
+    boolean withdraw(int accountId, long amountMinor) {
+        Partition partition = partitionOf(accountId);
+        synchronized (partition) {
+            int local = accountId / partitions.length;
+            if (partition.balances[local] < amountMinor) {
+                return false;
+            }
+            partition.balances[local] -= amountMinor;
+            appendLocked(partition, WITHDRAWN, accountId, amountMinor, null);
+            return true;
+        }
+    }
+
+    /**
+     * Membaca seluruh riwayat satu rekening dari log (untuk audit).
+     * Riwayat sebelum snapshot tetap ada di log, hanya tidak perlu dibaca saat rebuild.
+     */
+    public void forEachEvent(int accountId, Consumer<AccountEvent> action) throws IOException {
+        Partition partition = partitionOf(accountId);
+        synchronized (partition) {
+            partition.flushLocked();
+        }
+        scan(partition.logPath, 0, (type, id, amount, number) -> {
+            if (id == accountId) {
+                action.accept(new AccountEvent(type, id, amount, number));
+            }
+        });
+    }
+
+    /**
+     * Menulis snapshot semua partisi sekarang.
+     */
+    public void snapshot() throws IOException {
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                writeSnapshotLocked(partition);
+            }
+        }
+    }
+
+    /**
+     * Memastikan semua event sudah ditulis dan di-fsync ke disk.
+     */
+    public void sync() throws IOException {
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                partition.flushLocked();
+                partition.channel.force(false);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                partition.channel.close();
+            }
+        }
+    }
+
+    private Partition partitionOf(int accountId) {
+        return partitions[accountId % partitions.length];
+    }
+
+    private void appendLocked(Partition partition, byte type, int accountId, long amountMinor, byte[] accountNumber) {
+        int size = EVENT_BYTES + (accountNumber == null ? 0 : 2 + accountNumber.length);
+        try {
+            if (partition.buffer.remaining() < size) {
+                partition.flushLocked();
+            }
+            ByteBuffer buffer = partition.buffer;
+            int start = buffer.position();
+            buffer.position(start + CHECKSUM_BYTES);
+            buffer.put(type).putInt(accountId).putLong(amountMinor);
+            if (accountNumber != null) {
+                buffer.putShort((short) accountNumber.length).put(accountNumber);
+            }
+            partition.crc.reset();
+            partition.crc.update(buffer.array(), start + CHECKSUM_BYTES, size - CHECKSUM_BYTES);
+            buffer.putInt(start, (int) partition.crc.getValue());
+            if (++partition.eventsSinceSnapshot >= snapshotInterval) {
+                writeSnapshotLocked(partition);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Gagal menulis event rekening " + accountId, e);
+        }
+    }
+
+    /**
+     * Format snapshot: [long posisiLog][int jumlahRekening][long saldo...].
+     * Ditulis ke file sementara dan di-fsync, lalu di-rename agar tidak pernah
+     * setengah jadi; direktorinya di-fsync agar rename itu sendiri tidak hilang.
+     */
+    private void writeSnapshotLocked(Partition partition) throws IOException {
+        partition.flushLocked();
+        partition.channel.force(false);
+        Path temp = partition.snapshotPath.resolveSibling(partition.snapshotPath.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16))) {
+            output.writeLong(partition.channel.position());
+            output.writeInt(partition.count);
+            for (int i = 0; i < partition.count; i++) {
+                output.writeLong(partition.balances[i]);
+            }
+            output.flush();
+            file.force(true);
+        }
+        Files.move(temp, partition.snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(partition.snapshotPath.getParent());
+        partition.eventsSinceSnapshot = 0;
+    }
+
+    /**
+     * fsync direktori agar file baru dan rename di dalamnya tercatat di disk.
+     * Tidak semua sistem (misalnya Windows) bisa membuka direktori; di sana dilewati.
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Membangun ulang semua partisi secara paralel: baca snapshot, lalu
+     * terapkan event di log setelah posisi snapshot.
+     */
+    private void rebuild() throws IOException {
+        try {
+            IntStream.range(0, partitions.length).parallel().forEach(i -> {
+                try {
+                    rebuildPartition(partitions[i]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void rebuildPartition(Partition partition) throws IOException {
+        long logOffset = 0;
+        if (Files.exists(partition.snapshotPath)) {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(partition.snapshotPath), 1 << 16))) {
+                logOffset = input.readLong();
+                int count = input.readInt();
+                partition.ensureCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    partition.balances[i] = input.readLong();
+                }
+                partition.count = count;
+            }
+            long logSize = Files.exists(partition.logPath) ? Files.size(partition.logPath) : 0;
+            if (logOffset > logSize) {
+                // Log lebih pendek dari yang dicatat snapshot (log terpotong atau diganti):
+                // log adalah sumber kebenaran, jadi snapshot dibuang dan log dibaca dari awal.
+                // Snapshot harus dihapus, karena begitu log tumbuh lagi posisinya akan tampak sah
+                out.println("Snapshot melewati akhir log, membangun ulang dari awal: " + partition.snapshotPath);
+                Files.delete(partition.snapshotPath);
+                syncDirectory(partition.snapshotPath.getParent());
+                logOffset = 0;
+                Arrays.fill(partition.balances, 0);
+                partition.count = 0;
+            }
+        }
+        int partitionCount = partitions.length;
+        long validEnd = scan(partition.logPath, logOffset, (type, id, amount, number) -> {
+            int local = id / partitionCount;
+            switch (type) {
+                case OPENED -> {
+                    partition.ensureCapacity(local + 1);
+                    partition.balances[local] = amount;
+                    partition.count = Math.max(partition.count, local + 1);
+                }
+                case DEPOSITED -> partition.balances[local] += amount;
+                default -> partition.balances[local] -= amount;
+            }
+            partition.eventsSinceSnapshot++;
+        });
+        partition.openForAppend(Math.max(validEnd, logOffset));
+    }
+
+    @FunctionalInterface
+    private interface EventVisitor {
+        void visit(byte type, int accountId, long amountMinor, String accountNumber);
+    }
+
+    /**
+     * Membaca log secara berurutan lewat memory mapping mulai dari offset,
+     * berhenti di event pertama yang terpotong atau rusak.
+     *
+     * @return posisi akhir event terakhir yang utuh dan valid
+     */
+    private static long scan(Path logPath, long offset, EventVisitor visitor) throws IOException {
+        if (!Files.exists(logPath)) {
+            return 0;
+        }
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = offset;
+            while (position < size) {
+                // Dipetakan per jendela karena satu mapping maksimal 2 GB
+                long window = Math.min(size - position, 1L << 30);
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, window);
+                int consumed = 0;
+                boolean valid = true;
+                while (data.remaining() >= EVENT_BYTES) {
+                    int start = data.position();
+                    int checksum = data.getInt();
+                    byte type = data.get();
+                    int accountId = data.getInt();
+                    long amount = data.getLong();
+                    String accountNumber = null;
+                    if (type == OPENED) {
+                        if (data.remaining() >= 2 && data.getShort(data.position()) < 0) {
+                            valid = false;
+                            break;
+                        }
+                        if (data.remaining() < 2 || data.remaining() < 2 + data.getShort(data.position())) {
+                            // Terpotong; dibaca lagi di jendela berikutnya kalau masih ada
+                            break;
+                        }
+                        byte[] number = new byte[data.getShort()];
+                        data.get(number);
+                        accountNumber = new String(number, StandardCharsets.UTF_8);
+                    } else if (type != DEPOSITED && type != WITHDRAWN) {
+                        valid = false;
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(data.slice(start + CHECKSUM_BYTES, data.position() - start - CHECKSUM_BYTES));
+                    if ((int) crc.getValue() != checksum) {
+                        valid = false;
+                        break;
+                    }
+                    visitor.visit(type, accountId, amount, accountNumber);
+                    consumed = data.position();
+                }
+                position += consumed;
+                if (!valid || consumed == 0) {
+                    // Sisa log setelah posisi ini adalah event yang terpotong atau rusak (crash saat menulis)
+                    break;
+                }
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Satu partisi: file log, snapshot, dan saldo rekening di dalamnya.
+     */
+    private static final class Partition {
+        private final Path logPath;
+        private final Path snapshotPath;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32C crc = new CRC32C();
+        private FileChannel channel;
+        private long[] balances = new long[16];
+        private int count;
+        private long eventsSinceSnapshot;
+
+        Partition(int index, Path directory) {
+            this.logPath = directory.resolve("events-" + index + ".log");
+            this.snapshotPath = directory.resolve("snapshot-" + index + ".snap");
+        }
+
+        void openForAppend(long validEnd) throws IOException {
+            boolean created = !Files.exists(logPath);
+            channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (channel.size() > validEnd) {
+                out.println("Memotong event yang tidak utuh atau rusak di " + logPath + " pada posisi " + validEnd);
+                channel.truncate(validEnd);
+                channel.force(false);
+            }
+            channel.position(validEnd);
+            if (created) {
+                syncDirectory(logPath.getParent());
+            }
+        }
+
+        void ensureCapacity(int size) {
+            if (size > balances.length) {
+                balances = Arrays.copyOf(balances, Math.max(size, balances.length * 2));
+            }
+        }
+
+        void flushLocked() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
+
+/**
+ * EventSourcedSavingsAccount - tampilan SavingsAccount di atas AccountEventStore.
+ * Setiap deposit dan withdraw menjadi event di log; saldo dibaca dari store.
+ */
+class EventSourcedSavingsAccount implements BankAccount {
+    private final AccountEventStore store;
+    private final int accountId;
+
+    EventSourcedSavingsAccount(AccountEventStore store, int accountId) {
+        this.store = store;
+        this.accountId = accountId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    // Dicek setelah dibulatkan ke sen, seperti ConcurrentSavingsAccount: jumlah yang menjadi
+    // 0 sen diabaikan dan tidak pernah menjadi event di log
+    @Override
+    public void deposit(double amount) {
+        long amountMinor = amount > 0 ? ConcurrentSavingsAccount.toMinorUnits(amount) : 0;
+        if (amountMinor > 0) {
+            store.deposit(accountId, amountMinor);
+        }
+    }
+
+    @Override
+    public boolean withdraw(double amount) {
+        long amountMinor = amount > 0 ? ConcurrentSavingsAccount.toMinorUnits(amount) : 0;
+        return amountMinor > 0 && store.withdraw(accountId, amountMinor);
+    }
+
+    @Override
+    public double getBalance() {
+        return (double) getBalanceMinor() / ConcurrentSavingsAccount.MINOR_UNITS_PER_UNIT;
+    }
+
+    public long getBalanceMinor() {
+        return store.balanceOf(accountId);
+    }
+}
+
+/**
+ * AccountReplayBenchmark - mengukur waktu membangun ulang banyak rekening,
+ * dengan dan tanpa snapshot.
+ *
+ * Jalankan: java com.belajarjava.AccountReplayBenchmark [jumlahRekening] [partisi]
+ */
+class AccountReplayBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int partitionCount = args.length > 1
+            ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors() * 2;
+        Path directory = Files.createTempDirectory("account-events");
+
+        long begin = System.nanoTime();
+        try (AccountEventStore store = AccountEventStore.open(directory, partitionCount, Long.MAX_VALUE)) {
+            for (int i = 0; i < accounts; i++) {
+                EventSourcedSavingsAccount account = store.openAccount("ACC-" + i, 10_000);
+                account.deposit(25.50);
+                account.withdraw(10.00);
+            }
+        }
+        out.printf("Menulis %,d rekening (%,d event) dalam %.0f ms%n",
+            accounts, accounts * 3L, (System.nanoTime() - begin) / 1e6);
+
+        begin = System.nanoTime();
+        try (AccountEventStore store = AccountEventStore.open(directory, partitionCount, Long.MAX_VALUE)) {
+            out.printf("Rebuild dari log penuh: %,d rekening dalam %.0f ms%n",
+                store.accountCount(), (System.nanoTime() - begin) / 1e6);
+            store.snapshot();
+        }
+
+        begin = System.nanoTime();
+        try (AccountEventStore store = AccountEventStore.open(directory, partitionCount, Long.MAX_VALUE)) {
+            out.printf("Rebuild dari snapshot: %,d rekening dalam %.0f ms (saldo rekening 0: %.2f)%n",
+                store.accountCount(), (System.nanoTime() - begin) / 1e6, store.account(0).getBalance());
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.javaguide;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static java.lang.System.out;
+
+/**
+ * Registers users and checks their passwords.
+ *
+ * Passwords are stored as salted PBKDF2-HMAC-SHA256 hashes in a concurrent
+ * map keyed by username. Hashing is deliberately slow, so it runs on a
+ * dedicated pool with one thread per core and a bounded queue: callers of
+ * the async methods get a CompletableFuture right away, and when the queue
+ * is full the future fails with RejectedExecutionException instead of
+ * piling up work. Hashes are compared in constant time, and a login for an
+ * unknown user hashes against a dummy credential, so response times do not
+ * reveal which usernames exist.
+ *
+ * A successful login can also open a session (loginForSession); requests
+ * that carry the session token are then checked with validateSession(),
+ * which costs a table lookup instead of a password hash.
+ *
+ * Before any hashing, attempts are checked against a per-username token
+ * bucket and, when the caller passes a source such as a client address, a
+ * per-source sliding window. Attempts over the limit fail with
+ * RejectedExecutionException without costing a hash, so a credential
+ * stuffing burst cannot take over the hashing pool. Unknown usernames are
+ * limited the same way as real ones, so the limits do not reveal which
+ * usernames exist either; a flood of them pushes out the least recently
+ * used entries rather than locking real users out.
+ *
+ * Every successful login is also added to a LoginAnalytics tracker, which
+ * estimates distinct users per hour and day with HyperLogLog sketches.
+ */
+class AuthenticationService implements AutoCloseable {
+    static final int DEFAULT_ITERATIONS = 100_000;
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    static final int DEFAULT_MAX_SESSIONS = 100_000;
+    static final Duration DEFAULT_SESSION_TTL = Duration.ofMinutes(30);
+    static final int DEFAULT_TRACKED_KEYS = 100_000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final ConcurrentHashMap<String, Credential> credentials = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ExecutorService hashingPool;
+    private final SessionCache sessions;
+    private final int iterations;
+    private final Credential dummy;
+    private final RateLimiter userLimiter;
+    private final RateLimiter sourceLimiter;
+    private final LongAdder rateLimited = new LongAdder();
+    private final LoginAnalytics loginAnalytics = new LoginAnalytics();
+
+    /**
+     * A stored password hash with the parameters used to compute it.
+     */
+    private record Credential(byte[] salt, byte[] hash, int iterations) {}
+
+    public AuthenticationService() {
+        this(DEFAULT_ITERATIONS, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param iterations    PBKDF2 iterations for new passwords
+     * @param threads       size of the hashing pool
+     * @param queueCapacity hashing requests that may wait for a thread before new ones are rejected
+     */
+    public AuthenticationService(int iterations, int threads, int queueCapacity) {
+        this(iterations, threads, queueCapacity, DEFAULT_MAX_SESSIONS, DEFAULT_SESSION_TTL);
+    }
+
+    /**
+     * @param maxSessions sessions kept at most; the ones closest to expiry are evicted first
+     * @param sessionTtl  lifetime of a session token
+     */
+    public AuthenticationService(int iterations, int threads, int queueCapacity, int maxSessions, Duration sessionTtl) {
+        this(iterations, threads, queueCapacity, maxSessions, sessionTtl,
+            // 5 attempts at once, then one every 12 seconds
+            new TokenBucketRateLimiter(5, Duration.ofSeconds(12), DEFAULT_TRACKED_KEYS),
+            new SlidingLogRateLimiter(100, Duration.ofMinutes(1), DEFAULT_TRACKED_KEYS));
+    }
+
+    /**
+     * @param userLimiter   limit on login attempts per username
+     * @param sourceLimiter limit on login attempts per source
+     */
+    public AuthenticationService(int iterations, int threads, int queueCapacity, int maxSessions, Duration sessionTtl,
+                                 RateLimiter userLimiter, RateLimiter sourceLimiter) {
+        if (iterations < 1 || threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Iterations, threads and queue capacity must be positive");
+        }
+        this.iterations = iterations;
+        this.sessions = new SessionCache(maxSessions, sessionTtl);
+        this.userLimiter = userLimiter;
+        this.sourceLimiter = sourceLimiter;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.hashingPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            task -> {
+                Thread thread = new Thread(task, "password-hashing-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        byte[] salt = newSalt();
+        this.dummy = new Credential(salt, hash("dummy-password".toCharArray(), salt, iterations), iterations);
+    }
+
+    /**
+     * Registers a user, waiting for the password to be hashed.
+     *
+     * @return false if the username is taken
+     */
+    public boolean register(String username, String password) {
+        return await(registerAsync(username, password));
+    }
+
+    public CompletableFuture<Boolean> registerAsync(String username, String password) {
+        validate(username, password);
+        if (credentials.containsKey(username)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        char[] chars = password.toCharArray();
+        return submit(() -> {
+            byte[] salt = newSalt();
+            Credential credential = new Credential(salt, hash(chars, salt, iterations), iterations);
+            return credentials.putIfAbsent(username, credential) == null;
+        });
+    }
+
+    /**
+     * Checks a password, waiting for the hash to be computed.
+     */
+    public boolean login(String username, String password) {
+        return await(loginAsync(username, password));
+    }
+
+    /**
+     * Checks a password on the hashing pool without blocking the caller.
+     */
+    public CompletableFuture<Boolean> loginAsync(String username, String password) {
+        return loginAsync(username, password, null);
+    }
+
+    /**
+     * Checks a password for a request from the given source (for example the
+     * client address), applying the source's rate limit as well.
+     */
+    public CompletableFuture<Boolean> loginAsync(String username, String password, String source) {
+        validate(username, password);
+        // Check both limits before charging either, so a source over its limit does not also use
+        // up the user's attempts; the user is charged last, as that limit is the tighter one
+        boolean allowed = source == null
+            ? userLimiter.tryAcquire(username)
+            : userLimiter.isAllowed(username) && sourceLimiter.tryAcquire(source) && userLimiter.tryAcquire(username);
+        if (!allowed) {
+            rateLimited.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many login attempts"));
+        }
+        Credential stored = credentials.get(username);
+        Credential credential = stored != null ? stored : dummy;
+        char[] chars = password.toCharArray();
+        return submit(() -> {
+            byte[] candidate = hash(chars, credential.salt(), credential.iterations());
+            boolean ok = MessageDigest.isEqual(candidate, credential.hash()) && stored != null;
+            if (ok) {
+                loginAnalytics.record(username);
+            }
+            return ok;
+        });
+    }
+
+    /**
+     * Checks a password and, if it is correct, opens a session.
+     *
+     * @return the session token, or empty if the login failed
+     */
+    public Optional<String> loginForSession(String username, String password) {
+        try {
+            return loginForSessionAsync(username, password).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Optional<String>> loginForSessionAsync(String username, String password) {
+        return loginAsync(username, password)
+            .thenApply(ok -> ok ? Optional.of(sessions.issue(username)) : Optional.empty());
+    }
+
+    /**
+     * Returns the user a session token belongs to, or null if the token is
+     * unknown or expired. Does not hash anything.
+     */
+    public String validateSession(String token) {
+        return sessions.validate(token);
+    }
+
+    public boolean logout(String token) {
+        return sessions.invalidate(token);
+    }
+
+    /**
+     * Login attempts refused by the rate limits so far.
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * Distinct users with a successful login, per hour or day; see LoginAnalytics.
+     */
+    public LoginAnalytics getLoginAnalytics() {
+        return loginAnalytics;
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Saves live sessions so they survive a restart; see restoreSessions().
+     */
+    public void saveSessions(Path file) throws IOException {
+        sessions.writeSnapshot(file);
+    }
+
+    /**
+     * @return number of sessions restored
+     */
+    public int restoreSessions(Path file) throws IOException {
+        return sessions.readSnapshot(file);
+    }
+
+    public boolean isRegistered(String username) {
+        return credentials.containsKey(username);
+    }
+
+    public int userCount() {
+        return credentials.size();
+    }
+
+    @Override
+    public void close() {
+        hashingPool.shutdown();
+    }
+
+    private CompletableFuture<Boolean> submit(Supplier<Boolean> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, hashingPool);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static boolean await(CompletableFuture<Boolean> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    private static byte[] hash(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private static void validate(String username, String password) {
+        if (username == null || username.isBlank() || password == null || password.isEmpty()) {
+            throw new IllegalArgumentException("Username and password must not be empty");
+        }
+    }
+}
+
+/**
+ * Registers users, then keeps 10,000 logins in flight against
+ * AuthenticationService and reports logins per second and latency
+ * percentiles from submission to completion.
+ *
+ * Usage: java com.example.javaguide.AuthenticationBenchmark [sessions] [logins] [iterations]
+ */
+class AuthenticationBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int logins = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int users = 1_000;
+
+        // Limits high enough not to interfere; this measures hashing throughput
+        RateLimiter unlimited = new TokenBucketRateLimiter(Integer.MAX_VALUE / 2, Duration.ofNanos(1), users);
+        try (AuthenticationService service = new AuthenticationService(iterations,
+                Runtime.getRuntime().availableProcessors(), sessions,
+                AuthenticationService.DEFAULT_MAX_SESSIONS, AuthenticationService.DEFAULT_SESSION_TTL,
+                unlimited, unlimited)) {
+            List<CompletableFuture<Boolean>> registrations = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                registrations.add(service.registerAsync("user" + i, "password-" + i));
+                if (registrations.size() == sessions) {
+                    registrations.forEach(CompletableFuture::join);
+                    registrations.clear();
+                }
+            }
+            registrations.forEach(CompletableFuture::join);
+
+            for (int round = 1; round <= 3; round++) {
+                DoubleSummaryStatistics latencyMicros = new DoubleSummaryStatistics();
+                Semaphore inFlight = new Semaphore(sessions);
+                AtomicInteger failures = new AtomicInteger();
+                long begin = System.nanoTime();
+                for (int i = 0; i < logins; i++) {
+                    inFlight.acquire();
+                    int user = i % users;
+                    // Every tenth attempt uses a wrong password
+                    String password = i % 10 == 0 ? "wrong" : "password-" + user;
+                    boolean expected = i % 10 != 0;
+                    long submitted = System.nanoTime();
+                    service.loginAsync("user" + user, password).whenComplete((ok, error) -> {
+                        latencyMicros.accept((System.nanoTime() - submitted) / 1e3);
+                        if (error != null || ok != expected) {
+                            failures.incrementAndGet();
+                        }
+                        inFlight.release();
+                    });
+                }
+                inFlight.acquire(sessions);
+                long elapsed = System.nanoTime() - begin;
+                if (failures.get() > 0) {
+                    throw new IllegalStateException(failures.get() + " logins gave the wrong answer");
+                }
+                out.printf("Round %d: %,.0f logins/s, latency p50 %.1f ms, p99 %.1f ms (%d in flight, %d iterations)%n",
+                    round, logins * 1e9 / elapsed, latencyMicros.getP50() / 1e3, latencyMicros.getP99() / 1e3,
+                    sessions, iterations);
+            }
+        }
+    }
+}
@@ -977,6 +977,8 @@ public class BelajarJava {
         Thread incrementThread = new Thread(() -> {
             for (int i = 0; i < 10; i++) {
                 counter.increment();
+                // Print dilakukan di luar lock agar tidak memperlambat thread lain
+                out.println(Thread.currentThread().getName() + " incrementing: " + counter.getValue());
                 try {
                     Thread.sleep(100);
                 } catch (InterruptedException e) {
@@ -1625,10 +1627,9 @@ class MyRunnable implements Runnable {
 class Counter {
     private int count = 0;
     
-    // Synchronized method
+    // Synchronized method - hanya menaikkan nilai, tanpa I/O di dalam lock
     public synchronized void increment() {
         count++;
-        System.out.println(Thread.currentThread().getName() + " incrementing: " + count);
     }
     
     public synchronized int getValue() {
@@ -0,0 +1,35 @@
+package com.example.javaguide;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Memory measurements shared by the benchmarks.
+ */
+final class BenchmarkMemory {
+
+    private BenchmarkMemory() {
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or 0 when the JVM cannot tell.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean hotspot) {
+            return hotspot.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Heap in use after a few full collections, i.e. roughly the live data.
+     */
+    static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.javaguide;
+
+import java.math.RoundingMode;
+import java.util.SplittableRandom;
+
+import static java.lang.System.out;
+
+/**
+ * Discount, tax and payment fee calculations over whole arrays of prices in
+ * minor units, giving exactly the results of Product.applyDiscount,
+ * Money.percentage and PaymentMethod.calculateFee on each price.
+ *
+ * Percentages are applied like Money does: the percentage is scaled to
+ * units of 0.0001%, multiplied with the price and divided by 1,000,000 with
+ * HALF_EVEN rounding. When the JVM runs with
+ * --add-modules jdk.incubator.vector the arrays are processed by
+ * VectorPricingKernel several prices at a time; without the module the
+ * same loops run one price at a time. Both paths give identical results.
+ *
+ * Prices must not be negative.
+ */
+final class BulkPricing {
+    /** The sales tax rate used in ModernJava.demonstrateOperators. */
+    static final double TAX_PERCENT = 7;
+
+    // Percentages are handled in units of 0.0001%, as in Money
+    static final long PERCENT_SCALE = 10_000;
+    static final long DIVISOR = 100 * PERCENT_SCALE;
+
+    private static final VectorPricingKernel VECTOR_KERNEL = loadVectorKernel();
+
+    private BulkPricing() {
+    }
+
+    /**
+     * True when the Vector API module is present and the vector kernel is used.
+     */
+    static boolean isVectorized() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /**
+     * result[i] = prices[i] minus percentDiscount of it, as Product.applyDiscount does.
+     */
+    static void discount(long[] prices, double percentDiscount, long[] result) {
+        if (!(percentDiscount > 0 && percentDiscount <= 100)) {
+            throw new IllegalArgumentException("Discount must be more than 0 and at most 100 percent");
+        }
+        apply(prices, factor(percentDiscount), 1, -1, result);
+    }
+
+    /**
+     * result[i] = prices[i] plus the 7% sales tax on it.
+     */
+    static void addTax(long[] prices, long[] result) {
+        addTax(prices, TAX_PERCENT, result);
+    }
+
+    static void addTax(long[] prices, double taxPercent, long[] result) {
+        apply(prices, factor(taxPercent), 1, 1, result);
+    }
+
+    /**
+     * result[i] = the payment fee on prices[i], as PaymentMethod.calculateFee computes it.
+     */
+    static void fees(long[] prices, PaymentMethod method, long[] result) {
+        apply(prices, factor(method.getFeePercentage()), 0, 1, result);
+    }
+
+    /**
+     * result[i] = keep * prices[i] + sign * round(prices[i] * factor / DIVISOR).
+     */
+    private static void apply(long[] prices, long factor, int keep, int sign, long[] result) {
+        if (result.length < prices.length) {
+            throw new IllegalArgumentException("Result array is shorter than the prices");
+        }
+        if (VECTOR_KERNEL != null) {
+            VECTOR_KERNEL.apply(prices, factor, keep, sign, result);
+        } else {
+            applyScalar(prices, 0, prices.length, factor, keep, sign, result);
+        }
+    }
+
+    /**
+     * The reference loop; the vector kernel also uses it for the tail of the
+     * array and for prices too large for its double based division.
+     */
+    static void applyScalar(long[] prices, int from, int to, long factor, int keep, int sign, long[] result) {
+        for (int i = from; i < to; i++) {
+            long price = prices[i];
+            if (price < 0) {
+                throw new IllegalArgumentException("Negative price at index " + i);
+            }
+            long part = Money.divideRounded(Math.multiplyExact(price, factor), DIVISOR, RoundingMode.HALF_EVEN);
+            result[i] = keep * price + sign * part;
+        }
+    }
+
+    /**
+     * The percentage in units of 0.0001%, rejecting finer percentages that Money
+     * would only handle through BigDecimal.
+     */
+    static long factor(double percent) {
+        double scaled = Math.rint(percent * PERCENT_SCALE);
+        if (percent < 0 || scaled / PERCENT_SCALE != percent || scaled > DIVISOR) {
+            throw new IllegalArgumentException("Percentage must be 0 to 100 with at most four decimals: " + percent);
+        }
+        return (long) scaled;
+    }
+
+    private static VectorPricingKernel loadVectorKernel() {
+        try {
+            // Loading fails with NoClassDefFoundError unless jdk.incubator.vector was added at startup
+            return new VectorPricingKernel();
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
+
+/**
+ * Compares per-object pricing (Product.applyDiscount, Money.percentage and
+ * PaymentMethod.calculateFee) with the BulkPricing kernels on one thread,
+ * checks that every result matches, and reports prices per second per core.
+ * Run with and without --add-modules jdk.incubator.vector to compare the
+ * vector and scalar kernels.
+ *
+ * Usage: java [--add-modules jdk.incubator.vector] com.example.javaguide.BulkPricingBenchmark [prices]
+ */
+class BulkPricingBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        SplittableRandom random = new SplittableRandom(3);
+        long[] prices = new long[size];
+        for (int i = 0; i < size; i++) {
+            // Mostly shop prices, with some round amounts that produce exact half-cent ties
+            // and a few amounts too large for the vector kernel's double estimate
+            if (i % 8 == 0) {
+                prices[i] = 50 * random.nextInt(1_000);
+            } else if (i % 1000 == 1) {
+                prices[i] = random.nextLong(1_000_000_000_000L);
+            } else {
+                prices[i] = random.nextLong(1_000_000);
+            }
+        }
+        long[] result = new long[size];
+        out.println("Kernel: " + (BulkPricing.isVectorized() ? "Vector API" : "scalar"));
+
+        verify(prices, result);
+        for (int round = 1; round <= 3; round++) {
+            long begin = System.nanoTime();
+            long checksum = 0;
+            for (long price : prices) {
+                Product product = new Product("Item", Money.ofMinor(price, Money.DEFAULT_CURRENCY), 1);
+                product.applyDiscount(15);
+                Money taxed = product.getPrice().plus(product.getPrice().percentage(BulkPricing.TAX_PERCENT));
+                checksum += taxed.plus(PaymentMethod.CREDIT_CARD.calculateFee(taxed)).getMinorUnits();
+            }
+            long objectNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            BulkPricing.discount(prices, 15, result);
+            BulkPricing.addTax(result, result);
+            long[] fees = new long[size];
+            BulkPricing.fees(result, PaymentMethod.CREDIT_CARD, fees);
+            long bulkChecksum = 0;
+            for (int i = 0; i < size; i++) {
+                bulkChecksum += result[i] + fees[i];
+            }
+            long bulkNanos = System.nanoTime() - begin;
+
+            if (checksum != bulkChecksum) {
+                throw new IllegalStateException("Bulk pricing differs from per-object pricing");
+            }
+            out.printf("Round %d: objects %.1f M prices/s, bulk %.1f M prices/s (discount + tax + fee, one core)%n",
+                round, size / (objectNanos / 1e3), size / (bulkNanos / 1e3));
+        }
+    }
+
+    /**
+     * Checks every kernel result against Money on the same price.
+     */
+    private static void verify(long[] prices, long[] result) {
+        double[] percents = {15, 12.5, 0.0001, 33.3333, 100, BulkPricing.TAX_PERCENT};
+        for (double percent : percents) {
+            BulkPricing.discount(prices, percent, result);
+            for (int i = 0; i < prices.length; i++) {
+                Money price = Money.ofMinor(prices[i], Money.DEFAULT_CURRENCY);
+                if (result[i] != price.minus(price.percentage(percent)).getMinorUnits()) {
+                    throw new IllegalStateException("Discount of " + percent + "% differs at price " + prices[i]);
+                }
+            }
+        }
+        BulkPricing.addTax(prices, result);
+        for (int i = 0; i < prices.length; i++) {
+            Money price = Money.ofMinor(prices[i], Money.DEFAULT_CURRENCY);
+            if (result[i] != price.plus(price.percentage(BulkPricing.TAX_PERCENT)).getMinorUnits()) {
+                throw new IllegalStateException("Tax differs at price " + prices[i]);
+            }
+        }
+        for (PaymentMethod method : PaymentMethod.values()) {
+            BulkPricing.fees(prices, method, result);
+            for (int i = 0; i < prices.length; i++) {
+                if (result[i] != method.calculateFee(Money.ofMinor(prices[i], Money.DEFAULT_CURRENCY)).getMinorUnits()) {
+                    throw new IllegalStateException(method + " fee differs at price " + prices[i]);
+                }
+            }
+        }
+        out.printf("All discounts, taxes and fees match Money for %,d prices%n", prices.length);
+    }
+}
@@ -0,0 +1,260 @@
+package com.belajarjava;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.CountDownLatch;
+
+import static java.lang.System.out;
+
+/**
+ * ConcurrentSavingsAccount - implementasi BankAccount yang aman dipakai
+ * banyak thread sekaligus tanpa lock.
+ *
+ * Saldo disimpan sebagai long dalam satuan terkecil (sen, 1/100) sehingga
+ * tidak ada error pembulatan double. Setiap perubahan memakai loop
+ * compare-and-set: baca saldo, hitung saldo baru, lalu tulis hanya jika
+ * saldo belum diubah thread lain; jika sudah, ulangi.
+ */
+class ConcurrentSavingsAccount implements BankAccount {
+    static final int MINOR_UNITS_PER_UNIT = 100;
+
+    private static final VarHandle BALANCE;
+
+    static {
+        try {
+            BALANCE = MethodHandles.lookup()
+                .findVarHandle(ConcurrentSavingsAccount.class, "balance", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String accountNumber;
+    private final String accountName;
+    // Saldo dalam sen; hanya diubah lewat VarHandle BALANCE
+    private volatile long balance;
+
+    public ConcurrentSavingsAccount(String accountNumber, String accountName, long initialBalanceMinor) {
+        if (initialBalanceMinor < 0) {
+            throw new IllegalArgumentException("Saldo awal tidak boleh negatif");
+        }
+        this.accountNumber = accountNumber;
+        this.accountName = accountName;
+        this.balance = initialBalanceMinor;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getAccountName() {
+        return accountName;
+    }
+
+    // Yang dicek adalah jumlah setelah dibulatkan ke sen: 0.004 menjadi 0 sen dan diabaikan,
+    // sama seperti jumlah tidak positif pada SavingsAccount lama
+    @Override
+    public void deposit(double amount) {
+        long amountMinor = amount > 0 ? toMinorUnits(amount) : 0;
+        if (amountMinor > 0) {
+            depositMinor(amountMinor);
+        }
+    }
+
+    @Override
+    public boolean withdraw(double amount) {
+        long amountMinor = amount > 0 ? toMinorUnits(amount) : 0;
+        return amountMinor > 0 && withdrawMinor(amountMinor);
+    }
+
+    @Override
+    public double getBalance() {
+        return (double) balance / MINOR_UNITS_PER_UNIT;
+    }
+
+    public long getBalanceMinor() {
+        return balance;
+    }
+
+    /**
+     * Menambah saldo dalam sen.
+     *
+     * @throws ArithmeticException jika saldo melebihi Long.MAX_VALUE
+     */
+    public void depositMinor(long amountMinor) {
+        if (amountMinor <= 0) {
+            throw new IllegalArgumentException("Jumlah deposit harus positif: " + amountMinor);
+        }
+        long current;
+        do {
+            current = balance;
+        } while (!casBalance(current, Math.addExact(current, amountMinor)));
+    }
+
+    /**
+     * Mengurangi saldo dalam sen; gagal (false) jika saldo tidak cukup.
+     */
+    public boolean withdrawMinor(long amountMinor) {
+        if (amountMinor <= 0) {
+            throw new IllegalArgumentException("Jumlah penarikan harus positif: " + amountMinor);
+        }
+        long current;
+        do {
+            current = balance;
+            if (current < amountMinor) {
+                return false;
+            }
+        } while (!casBalance(current, current - amountMinor));
+        return true;
+    }
+
+    /**
+     * Menyetor banyak jumlah sekaligus dengan satu CAS, sehingga thread lain
+     * melihat seluruh batch masuk bersamaan (tidak sebagian).
+     *
+     * @param amountsMinor jumlah-jumlah dalam sen, semuanya harus positif
+     */
+    public void depositAll(long[] amountsMinor) {
+        long total = 0;
+        for (long amount : amountsMinor) {
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Jumlah deposit harus positif: " + amount);
+            }
+            total = Math.addExact(total, amount);
+        }
+        if (total > 0) {
+            depositMinor(total);
+        }
+    }
+
+    private boolean casBalance(long expected, long updated) {
+        if (BALANCE.weakCompareAndSet(this, expected, updated)) {
+            return true;
+        }
+        // Thread lain menang; beri jeda singkat sebelum mencoba lagi
+        Thread.onSpinWait();
+        return false;
+    }
+
+    /**
+     * Mengubah jumlah dalam satuan utama (misal 10.25) menjadi sen (1025).
+     */
+    static long toMinorUnits(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Jumlah tidak valid: " + amount);
+        }
+        return Math.round(amount * MINOR_UNITS_PER_UNIT);
+    }
+}
+
+/**
+ * SavingsAccountBenchmark - stress test (tidak boleh ada update yang hilang
+ * dengan 64 thread) dan perbandingan throughput antara ConcurrentSavingsAccount
+ * dan versi yang memakai synchronized.
+ *
+ * Jalankan: java com.belajarjava.SavingsAccountBenchmark [threads] [operasiPerThread]
+ */
+class SavingsAccountBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        stressTest(threads, perThread);
+
+        for (int round = 0; round < 3; round++) {
+            ConcurrentSavingsAccount casAccount = new ConcurrentSavingsAccount("CAS-1", "Bench", 0);
+            LockedAccount lockedAccount = new LockedAccount();
+            double cas = run(() -> {
+                casAccount.depositMinor(2);
+                casAccount.withdrawMinor(1);
+            }, threads, perThread);
+            double locked = run(() -> {
+                lockedAccount.depositMinor(2);
+                lockedAccount.withdrawMinor(1);
+            }, threads, perThread);
+            out.printf("Putaran %d: CAS %,.0f ops/s, synchronized %,.0f ops/s (%.1fx)%n",
+                round + 1, cas, locked, cas / locked);
+        }
+    }
+
+    /**
+     * Setiap thread menyetor 3 sen dan menarik 1 sen berulang kali. Tanpa
+     * update yang hilang, saldo akhir harus tepat threads * perThread * 2 sen.
+     */
+    private static void stressTest(int threads, int perThread) throws InterruptedException {
+        ConcurrentSavingsAccount account = new ConcurrentSavingsAccount("STRESS-1", "Stress", 0);
+        runThreads(threads, () -> {
+            long[] batch = {1, 1, 1};
+            for (int i = 0; i < perThread; i++) {
+                if (i % 2 == 0) {
+                    account.depositMinor(3);
+                } else {
+                    account.depositAll(batch);
+                }
+                if (!account.withdrawMinor(1)) {
+                    throw new IllegalStateException("Penarikan gagal padahal saldo cukup");
+                }
+            }
+        });
+        long expected = (long) threads * perThread * 2;
+        if (account.getBalanceMinor() != expected) {
+            throw new IllegalStateException("Update hilang! Saldo " + account.getBalanceMinor()
+                + ", seharusnya " + expected);
+        }
+        out.printf("Stress test OK: %d thread, saldo akhir %,d sen sesuai%n", threads, expected);
+    }
+
+    // Satu operasi = deposit 2 sen lalu tarik 1 sen
+    private static double run(Runnable depositThenWithdraw, int threads, int perThread)
+            throws InterruptedException {
+        long nanos = runThreads(threads, () -> {
+            for (int i = 0; i < perThread; i++) {
+                depositThenWithdraw.run();
+            }
+        });
+        return threads * (double) perThread * 2 * 1e9 / nanos;
+    }
+
+    private static long runThreads(int threads, Runnable work) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                work.run();
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Versi pembanding dengan lock (synchronized)
+     */
+    private static class LockedAccount {
+        private long balance;
+
+        synchronized void depositMinor(long amount) {
+            balance = Math.addExact(balance, amount);
+        }
+
+        synchronized boolean withdrawMinor(long amount) {
+            if (balance < amount) {
+                return false;
+            }
+            balance -= amount;
+            return true;
+        }
+    }
+}
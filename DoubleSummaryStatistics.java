@@ -1,4 +1,548 @@
+package com.example.javaguide;
 
-public class DoubleSummaryStatistics {
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
 
+import static java.lang.System.out;
+
+/**
+ * Statistics over a stream of doubles: count, sum, min, max and average like
+ * java.util.DoubleSummaryStatistics, plus variance, standard deviation and
+ * approximate quantiles (p50, p99, p999).
+ *
+ * Unlike the JDK class, one instance can be fed from many threads at once,
+ * and accept() is lock-free. Values go to one of a few cells, one per
+ * processor, picked with a per-thread probe as in StripedCounter. Every
+ * field of a cell is updated on its own with an atomic add or a CAS loop,
+ * like LongAdder and DoubleAdder, so a thread never waits for another one.
+ * Each cell also counts updates begun and ended; a reader that saw them
+ * differ retries that cell (a sequence lock). If writers keep the cell busy
+ * it takes what it read, so while values are being accepted a reading can be
+ * off by the updates in flight (like LongAdder.sum()).
+ *
+ * The sum is compensated: the exact rounding error of every addition
+ * (TwoSum) is added up separately. The variance comes from sums of
+ * (value - shift) and its square, where shift is the first value seen, so
+ * it does not lose precision when the mean is large compared to the spread.
+ * Quantiles come from a histogram with 32 logarithmic buckets per power of
+ * two. A quantile is therefore within about 1.6% of a value that was actually
+ * seen, as long as values are between 2^-24 and 2^40 in magnitude; smaller
+ * and larger values are counted in the first and last bucket. Memory is a
+ * fixed 16 KB per cell that accepted values (32 KB once a negative value
+ * is seen).
+ *
+ * Works with streams the same way as the JDK class:
+ * {@code stream.collect(DoubleSummaryStatistics::new, DoubleSummaryStatistics::accept, DoubleSummaryStatistics::combine)}
+ */
+public class DoubleSummaryStatistics implements DoubleConsumer {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MIN_EXPONENT = -24;
+    private static final int MAX_EXPONENT = 40;
+    // Bucket 0 holds magnitudes below 2^MIN_EXPONENT, including zero
+    private static final int BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS;
+
+    // One cell = 16 longs = 128 bytes: its eight fields plus padding, so no two cells share a cache line
+    private static final int PADDING = 16;
+    // Fields of a cell; doubles are stored as their raw bits
+    private static final int BEGUN = 0;
+    private static final int ENDED = 1;
+    private static final int SUM = 2;
+    private static final int ERROR = 3;
+    private static final int SHIFTED_SUM = 4;
+    private static final int SHIFTED_SQUARES = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    // Reads of a cell that writers keep changing before a reader settles for what it saw
+    private static final int READ_ATTEMPTS = 8;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle HISTOGRAMS = MethodHandles.arrayElementVarHandle(long[][].class);
+    private static final VarHandle SHIFT;
+
+    static {
+        try {
+            SHIFT = MethodHandles.lookup().findVarHandle(DoubleSummaryStatistics.class, "shift", double.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // An empty cell before and after as padding
+    private final long[] cells;
+    // Per cell a positive and a negative histogram, created on first use
+    private final long[][] histograms;
+    private final int mask;
+    // Subtracted from values before squaring; set once, to the first finite value seen
+    private volatile double shift = Double.NaN;
+
+    public DoubleSummaryStatistics() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = processors == 1 ? 1 : Integer.highestOneBit(processors - 1) << 1;
+        this.mask = stripes - 1;
+        this.histograms = new long[2 * stripes][];
+        this.cells = new long[(stripes + 2) * PADDING];
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            cells[base(stripe) + MIN] = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+            cells[base(stripe) + MAX] = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Records a value. Safe to call from any number of threads.
+     */
+    @Override
+    public void accept(double value) {
+        double shifted = value - shift(value);
+        int stripe = ThreadProbe.get() & mask;
+        int base = base(stripe);
+        LONGS.getAndAdd(cells, base + BEGUN, 1L);
+        addCompensated(base, value);
+        addDouble(base + SHIFTED_SUM, shifted);
+        addDouble(base + SHIFTED_SQUARES, shifted * shifted);
+        accumulate(base + MIN, value, Math::min);
+        accumulate(base + MAX, value, Math::max);
+        if (value >= 0) {
+            LONGS.getAndAdd(histogram(2 * stripe), bucketOf(value), 1L);
+        } else if (value < 0) {
+            LONGS.getAndAdd(histogram(2 * stripe + 1), bucketOf(-value), 1L);
+        }
+        LONGS.getAndAdd(cells, base + ENDED, 1L);
+    }
+
+    /**
+     * Adds everything recorded by other to this instance.
+     */
+    public void combine(DoubleSummaryStatistics other) {
+        Totals totals = other.snapshot();
+        if (totals.count == 0) {
+            return;
+        }
+        // Move the other instance's shifted sums over to this instance's shift
+        double offset = totals.shift - shift(totals.shift);
+        int stripe = ThreadProbe.get() & mask;
+        int base = base(stripe);
+        LONGS.getAndAdd(cells, base + BEGUN, totals.count);
+        addCompensated(base, totals.sum);
+        addDouble(base + ERROR, totals.error);
+        addDouble(base + SHIFTED_SUM, totals.shiftedSum + totals.count * offset);
+        addDouble(base + SHIFTED_SQUARES, totals.shiftedSquares
+            + 2 * offset * totals.shiftedSum + totals.count * offset * offset);
+        accumulate(base + MIN, totals.min, Math::min);
+        accumulate(base + MAX, totals.max, Math::max);
+        addBuckets(2 * stripe, totals.positive);
+        addBuckets(2 * stripe + 1, totals.negative);
+        LONGS.getAndAdd(cells, base + ENDED, totals.count);
+    }
+
+    public final long getCount() {
+        long count = 0;
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            count += (long) LONGS.getVolatile(cells, base(stripe) + ENDED);
+        }
+        return count;
+    }
+
+    /**
+     * The compensated sum, or NaN / infinity as the plain sum would give.
+     */
+    public final double getSum() {
+        return snapshot().sum();
+    }
+
+    /**
+     * Smallest value, Double.POSITIVE_INFINITY if none, NaN if any value was NaN.
+     */
+    public final double getMin() {
+        return snapshot().min;
+    }
+
+    /**
+     * Largest value, Double.NEGATIVE_INFINITY if none, NaN if any value was NaN.
+     */
+    public final double getMax() {
+        return snapshot().max;
+    }
+
+    public final double getAverage() {
+        Totals all = snapshot();
+        return all.count > 0 ? all.sum() / all.count : 0.0;
+    }
+
+    /**
+     * Population variance (divided by count), 0 when there are fewer than two values.
+     */
+    public final double getVariance() {
+        return snapshot().variance();
+    }
+
+    public final double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Approximate q-quantile, e.g. 0.5 for the median or 0.99 for p99;
+     * NaN when no values were recorded.
+     */
+    public final double getQuantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        return snapshot().quantile(q);
+    }
+
+    public final double getP50() {
+        return getQuantile(0.5);
+    }
+
+    public final double getP99() {
+        return getQuantile(0.99);
+    }
+
+    public final double getP999() {
+        return getQuantile(0.999);
+    }
+
+    @Override
+    public String toString() {
+        Totals all = snapshot();
+        return String.format("%s{count=%d, sum=%f, min=%f, average=%f, max=%f, stddev=%f, p50=%f, p99=%f, p999=%f}",
+            getClass().getSimpleName(), all.count, all.sum(), all.min,
+            all.count > 0 ? all.sum() / all.count : 0.0, all.max, Math.sqrt(all.variance()),
+            all.quantile(0.5), all.quantile(0.99), all.quantile(0.999));
+    }
+
+    private static int base(int stripe) {
+        return (stripe + 1) * PADDING;
+    }
+
+    /**
+     * The shift, which the first caller sets from its value.
+     */
+    private double shift(double value) {
+        double current = shift;
+        if (Double.isNaN(current)) {
+            SHIFT.compareAndSet(this, Double.NaN, Double.isFinite(value) ? value : 0.0);
+            current = shift;
+        }
+        return current;
+    }
+
+    private long[] histogram(int index) {
+        long[] histogram = (long[]) HISTOGRAMS.getAcquire(histograms, index);
+        if (histogram == null) {
+            long[] created = new long[BUCKETS];
+            long[] witness = (long[]) HISTOGRAMS.compareAndExchangeRelease(histograms, index, null, created);
+            histogram = witness == null ? created : witness;
+        }
+        return histogram;
+    }
+
+    private void addBuckets(int index, long[] counts) {
+        if (counts == null) {
+            return;
+        }
+        long[] histogram = histogram(index);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (counts[bucket] != 0) {
+                LONGS.getAndAdd(histogram, bucket, counts[bucket]);
+            }
+        }
+    }
+
+    private void addDouble(int index, double delta) {
+        long current = (long) LONGS.getVolatile(cells, index);
+        while (true) {
+            long next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+            long witness = (long) LONGS.compareAndExchange(cells, index, current, next);
+            if (witness == current) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    /**
+     * Adds to the cell's sum, then adds the rounding error of exactly that
+     * addition to its error term.
+     */
+    private void addCompensated(int base, double value) {
+        long current = (long) LONGS.getVolatile(cells, base + SUM);
+        while (true) {
+            double sum = Double.longBitsToDouble(current);
+            double total = sum + value;
+            long witness = (long) LONGS.compareAndExchange(cells, base + SUM, current, Double.doubleToRawLongBits(total));
+            if (witness == current) {
+                double error = twoSumError(sum, value, total);
+                if (error != 0) {
+                    addDouble(base + ERROR, error);
+                }
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    private void accumulate(int index, double value, DoubleBinaryOperator function) {
+        long current = (long) LONGS.getVolatile(cells, index);
+        while (true) {
+            long next = Double.doubleToRawLongBits(function.applyAsDouble(Double.longBitsToDouble(current), value));
+            if (next == current) {
+                return;
+            }
+            long witness = (long) LONGS.compareAndExchange(cells, index, current, next);
+            if (witness == current) {
+                return;
+            }
+            current = witness;
+        }
+    }
+
+    /**
+     * Knuth's TwoSum: a + b - total, exactly, for total = a + b rounded.
+     */
+    static double twoSumError(double a, double b, double total) {
+        double bVirtual = total - a;
+        return (a - (total - bVirtual)) + (b - bVirtual);
+    }
+
+    /**
+     * Adds up the cells. Each cell is read until no update ran while it was
+     * being read, or READ_ATTEMPTS times.
+     */
+    private Totals snapshot() {
+        Totals all = new Totals(shift);
+        for (int stripe = 0; stripe <= mask; stripe++) {
+            int base = base(stripe);
+            for (int attempt = 1; ; attempt++) {
+                long ended = (long) LONGS.getVolatile(cells, base + ENDED);
+                if (ended == 0) {
+                    break;
+                }
+                Totals cell = new Totals(all.shift);
+                cell.count = ended;
+                cell.sum = readDouble(base + SUM);
+                cell.error = readDouble(base + ERROR);
+                cell.shiftedSum = readDouble(base + SHIFTED_SUM);
+                cell.shiftedSquares = readDouble(base + SHIFTED_SQUARES);
+                cell.min = readDouble(base + MIN);
+                cell.max = readDouble(base + MAX);
+                cell.positive = readHistogram(2 * stripe);
+                cell.negative = readHistogram(2 * stripe + 1);
+                if ((long) LONGS.getVolatile(cells, base + BEGUN) == ended || attempt == READ_ATTEMPTS) {
+                    all.add(cell);
+                    break;
+                }
+                // The writer may have been descheduled mid-update; let it finish
+                Thread.yield();
+            }
+        }
+        return all;
+    }
+
+    private double readDouble(int index) {
+        return Double.longBitsToDouble((long) LONGS.getVolatile(cells, index));
+    }
+
+    private long[] readHistogram(int index) {
+        long[] histogram = (long[]) HISTOGRAMS.getVolatile(histograms, index);
+        if (histogram == null) {
+            return null;
+        }
+        long[] copy = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            copy[bucket] = (long) LONGS.getVolatile(histogram, bucket);
+        }
+        return copy;
+    }
+
+    static int bucketOf(double magnitude) {
+        if (!(magnitude >= Math.scalb(1.0, MIN_EXPONENT))) {
+            return 0;
+        }
+        int exponent = Math.getExponent(magnitude);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        long mantissa = Double.doubleToRawLongBits(magnitude) & 0x000F_FFFF_FFFF_FFFFL;
+        int subBucket = (int) (mantissa >>> (52 - SUB_BUCKET_BITS));
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Middle of the range of magnitudes counted in the bucket.
+     */
+    static double bucketMidpoint(int bucket) {
+        if (bucket == 0) {
+            return 0.0;
+        }
+        int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+        return Math.scalb(1.0 + (subBucket + 0.5) / SUB_BUCKETS, exponent);
+    }
+
+    /**
+     * A reading of one cell or of the whole instance; only touched by the
+     * thread that reads.
+     */
+    private static final class Totals {
+        final double shift;
+        long count;
+        double sum;
+        double error;
+        double shiftedSum;
+        double shiftedSquares;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long[] positive;
+        long[] negative;
+
+        Totals(double shift) {
+            this.shift = shift;
+        }
+
+        void add(Totals other) {
+            count += other.count;
+            double total = sum + other.sum;
+            error += twoSumError(sum, other.sum, total) + other.error;
+            sum = total;
+            shiftedSum += other.shiftedSum;
+            shiftedSquares += other.shiftedSquares;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            positive = mergeBuckets(positive, other.positive);
+            negative = mergeBuckets(negative, other.negative);
+        }
+
+        double sum() {
+            // The error term turns an infinite sum into NaN; the plain sum is right then
+            return Double.isFinite(sum) ? sum + error : sum;
+        }
+
+        double variance() {
+            if (count < 2) {
+                return 0.0;
+            }
+            double shiftedMean = shiftedSum / count;
+            return Math.max(0.0, (shiftedSquares - shiftedSum * shiftedMean) / count);
+        }
+
+        double quantile(double q) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            // Negative values from the largest magnitude down, then positive ones upward
+            if (negative != null) {
+                for (int bucket = BUCKETS - 1; bucket >= 0; bucket--) {
+                    seen += negative[bucket];
+                    if (seen >= rank) {
+                        return clamp(-bucketMidpoint(bucket));
+                    }
+                }
+            }
+            if (positive != null) {
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    seen += positive[bucket];
+                    if (seen >= rank) {
+                        return clamp(bucketMidpoint(bucket));
+                    }
+                }
+            }
+            // Only NaN values are left, which no bucket counts
+            return max;
+        }
+
+        private double clamp(double value) {
+            return Math.max(min, Math.min(max, value));
+        }
+
+        private static long[] mergeBuckets(long[] into, long[] from) {
+            if (from == null) {
+                return into;
+            }
+            if (into == null) {
+                return from;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                into[i] += from[i];
+            }
+            return into;
+        }
+    }
+}
+
+/**
+ * Feeds simulated request latencies through DoubleSummaryStatistics, from one
+ * thread and from several threads sharing one instance, and compares the
+ * quantiles with the exact values from a sorted copy.
+ *
+ * Usage: java com.example.javaguide.StatisticsBenchmark [values] [threads]
+ */
+class StatisticsBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int values = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        // Log-normal latencies in milliseconds: mostly a few ms with a long tail
+        SplittableRandom random = new SplittableRandom(23);
+        double[] latencies = new double[values];
+        for (int i = 0; i < values; i++) {
+            latencies[i] = Math.exp(1.0 + 0.8 * random.nextGaussian());
+        }
+        double[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+
+        for (int round = 1; round <= 3; round++) {
+            long begin = System.nanoTime();
+            java.util.DoubleSummaryStatistics jdk = new java.util.DoubleSummaryStatistics();
+            for (double latency : latencies) {
+                jdk.accept(latency);
+            }
+            long jdkNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            DoubleSummaryStatistics single = new DoubleSummaryStatistics();
+            for (double latency : latencies) {
+                single.accept(latency);
+            }
+            long singleNanos = System.nanoTime() - begin;
+
+            DoubleSummaryStatistics shared = new DoubleSummaryStatistics();
+            CountDownLatch done = new CountDownLatch(threads);
+            begin = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int from = (int) ((long) values * t / threads);
+                int to = (int) ((long) values * (t + 1) / threads);
+                new Thread(() -> {
+                    for (int i = from; i < to; i++) {
+                        shared.accept(latencies[i]);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            done.await();
+            long sharedNanos = System.nanoTime() - begin;
+
+            if (shared.getCount() != values || Math.abs(shared.getSum() - jdk.getSum()) > 1e-9 * jdk.getSum()) {
+                throw new IllegalStateException("Shared statistics lost values: " + shared);
+            }
+            out.printf("Round %d: JDK %.1f ns/value, single thread %.1f ns/value, %d threads %.1f ns/value%n",
+                round, (double) jdkNanos / values, (double) singleNanos / values, threads, (double) sharedNanos / values);
+            out.printf("  p50 %.3f (exact %.3f), p99 %.3f (exact %.3f), p999 %.3f (exact %.3f), stddev %.3f%n",
+                shared.getP50(), exact(sorted, 0.5), shared.getP99(), exact(sorted, 0.99),
+                shared.getP999(), exact(sorted, 0.999), shared.getStandardDeviation());
+        }
+    }
+
+    private static double exact(double[] sorted, double q) {
+        return sorted[(int) Math.max(0, Math.ceil(q * sorted.length) - 1)];
+    }
 }
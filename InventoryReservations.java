@@ -0,0 +1,430 @@
+package com.example.javaguide;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+import static java.lang.System.out;
+
+/**
+ * Stock reservations for checkout: reserve() holds units of a product, and
+ * the reservation is then either committed (sold) or released. Reservations
+ * left open past the timeout are released automatically by a
+ * TimingWheel, so abandoned carts give their stock back.
+ *
+ * Units that can still be reserved are kept in padded cells, one cache line
+ * each, like StripedCounter. A product tracked with one stripe has a single
+ * cell; a hot product can be split over several so concurrent checkouts CAS
+ * different cells. A thread takes from its own cell first and only when that
+ * is short does it collect from the others. Every take is a CAS that checks
+ * the cell still holds enough, so stock never goes below zero.
+ *
+ * Units on hand (sold ones excluded) are an AtomicInteger per product;
+ * commit() and restock() only add to it. The count is then published to the
+ * product by whichever thread gets there first, through the consumer given
+ * to track(): by default Product.setStockQuantity, or ProductCatalog's
+ * stockUpdates(id) so the catalog's availability bitmap follows too. Once a
+ * product is tracked this class is the only writer of its stock.
+ */
+class InventoryReservations implements AutoCloseable {
+    static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(10);
+
+    // One cell = 8 longs = 64 bytes, so every cell has its own cache line
+    private static final int PADDING = 8;
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final ConcurrentHashMap<String, Sku> skus = new ConcurrentHashMap<>();
+    private final TimingWheel timeouts;
+    private final long timeoutNanos;
+
+    /**
+     * Counters for one product; retries and misses show how contended it is.
+     *
+     * @param reserved     successful reservations
+     * @param outOfStock   reservations refused for lack of stock
+     * @param casRetries   CAS attempts lost to another thread
+     * @param stripeMisses reservations that got units from a stripe other than the thread's own
+     * @param expired      reservations released by the timeout
+     */
+    record Contention(long reserved, long outOfStock, long casRetries, long stripeMisses, long expired) {}
+
+    static final class Sku {
+        final String id;
+        final AtomicInteger onHand;
+        final IntConsumer stockUpdates;
+        final AtomicInteger publishing = new AtomicInteger();
+        final long[] cells;
+        final int mask;
+        final LongAdder reserved = new LongAdder();
+        final LongAdder outOfStock = new LongAdder();
+        final LongAdder casRetries = new LongAdder();
+        final LongAdder stripeMisses = new LongAdder();
+        final LongAdder expired = new LongAdder();
+
+        Sku(String id, int stock, int stripes, IntConsumer stockUpdates) {
+            this.id = id;
+            this.stockUpdates = stockUpdates;
+            this.mask = stripes - 1;
+            // An empty cell before and after as padding
+            this.cells = new long[(stripes + 2) * PADDING];
+            this.onHand = new AtomicInteger(stock);
+            for (int i = 0; i < stripes; i++) {
+                // Spread the stock evenly, the remainder going to the first cells
+                CELLS.setVolatile(cells, cell(i), (long) (stock / stripes + (i < stock % stripes ? 1 : 0)));
+            }
+        }
+
+        static int cell(int stripe) {
+            return (stripe + 1) * PADDING;
+        }
+
+        int home() {
+            return cell(ThreadProbe.get() & mask);
+        }
+
+        /**
+         * Takes up to `wanted` units from one cell.
+         *
+         * @return units taken; less than wanted only when the cell ran short
+         */
+        long take(int cell, long wanted, boolean partial) {
+            long current = (long) CELLS.getVolatile(cells, cell);
+            while (true) {
+                long taken = Math.min(current, wanted);
+                if (taken == 0 || (taken < wanted && !partial)) {
+                    return 0;
+                }
+                long witness = (long) CELLS.compareAndExchange(cells, cell, current, current - taken);
+                if (witness == current) {
+                    return taken;
+                }
+                casRetries.increment();
+                current = witness;
+            }
+        }
+
+        boolean reserve(int quantity) {
+            int home = home();
+            if (take(home, quantity, false) == quantity) {
+                return true;
+            }
+            // Collect from every cell; if that is still not enough, put it all back
+            long collected = 0;
+            boolean borrowed = false;
+            for (int stripe = 0; stripe <= mask && collected < quantity; stripe++) {
+                long taken = take(cell(stripe), quantity - collected, true);
+                collected += taken;
+                borrowed |= taken > 0 && cell(stripe) != home;
+            }
+            if (collected == quantity) {
+                if (borrowed) {
+                    stripeMisses.increment();
+                }
+                return true;
+            }
+            give(collected);
+            return false;
+        }
+
+        void give(long units) {
+            if (units > 0) {
+                CELLS.getAndAdd(cells, home(), units);
+            }
+        }
+
+        /**
+         * Adds to the units on hand and publishes the new count.
+         */
+        void addStock(int units) {
+            onHand.addAndGet(units);
+            // One thread publishes at a time; if the count moved while it did, it goes again
+            while (publishing.compareAndSet(0, 1)) {
+                int published = onHand.get();
+                try {
+                    stockUpdates.accept(published);
+                } finally {
+                    publishing.set(0);
+                }
+                if (onHand.get() == published) {
+                    return;
+                }
+            }
+        }
+
+        long available() {
+            long total = 0;
+            for (int stripe = 0; stripe <= mask; stripe++) {
+                total += (long) CELLS.getVolatile(cells, cell(stripe));
+            }
+            return total;
+        }
+    }
+
+    public InventoryReservations() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout how long a reservation holds stock before it is released automatically
+     */
+    public InventoryReservations(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.timeoutNanos = timeout.toNanos();
+        this.timeouts = new TimingWheel(10, TimeUnit.MILLISECONDS, 512, task -> task.action.run());
+    }
+
+    public void track(String sku, Product product) {
+        track(sku, product, 1);
+    }
+
+    public void track(String sku, Product product, int stripes) {
+        track(sku, product, stripes, product::setStockQuantity);
+    }
+
+    /**
+     * Starts managing a product's stock.
+     *
+     * @param stripes      cells to split the stock over, rounded up to a power of two; use more for hot products
+     * @param stockUpdates receives the units on hand after each change and must store them in the product
+     */
+    public void track(String sku, Product product, int stripes, IntConsumer stockUpdates) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes must be positive");
+        }
+        int rounded = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        if (skus.putIfAbsent(sku, new Sku(sku, product.getStockQuantity(), rounded, stockUpdates)) != null) {
+            throw new IllegalArgumentException("SKU already tracked: " + sku);
+        }
+    }
+
+    /**
+     * Holds units of a product until the reservation is committed, released or times out.
+     *
+     * @return the reservation, or null if there is not enough stock
+     */
+    public Reservation reserve(String sku, int quantity) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        Sku state = sku(sku);
+        if (!state.reserve(quantity)) {
+            state.outOfStock.increment();
+            return null;
+        }
+        state.reserved.increment();
+        Reservation reservation = new Reservation(state, quantity);
+        reservation.timer = timeouts.schedule("reservation " + sku, TaskPriority.LOW, () -> {
+            if (reservation.finish(Reservation.EXPIRED)) {
+                state.expired.increment();
+                state.give(quantity);
+            }
+        }, timeoutNanos);
+        return reservation;
+    }
+
+    /**
+     * Completes the sale: the units leave stock for good.
+     *
+     * @return false if the reservation was already committed, released or expired
+     */
+    public boolean commit(Reservation reservation) {
+        if (!reservation.finish(Reservation.COMMITTED)) {
+            return false;
+        }
+        reservation.timer.cancel();
+        reservation.sku.addStock(-reservation.quantity);
+        return true;
+    }
+
+    /**
+     * Gives the units back so others can reserve them.
+     *
+     * @return false if the reservation was already committed, released or expired
+     */
+    public boolean release(Reservation reservation) {
+        if (!reservation.finish(Reservation.RELEASED)) {
+            return false;
+        }
+        reservation.timer.cancel();
+        reservation.sku.give(reservation.quantity);
+        return true;
+    }
+
+    /**
+     * Adds newly delivered units.
+     */
+    public void restock(String sku, int units) {
+        if (units < 1) {
+            throw new IllegalArgumentException("Units must be positive");
+        }
+        Sku state = sku(sku);
+        state.addStock(units);
+        state.give(units);
+    }
+
+    /**
+     * Units that can still be reserved.
+     */
+    public long available(String sku) {
+        return sku(sku).available();
+    }
+
+    public Contention contention(String sku) {
+        Sku state = sku(sku);
+        return new Contention(state.reserved.sum(), state.outOfStock.sum(), state.casRetries.sum(),
+            state.stripeMisses.sum(), state.expired.sum());
+    }
+
+    @Override
+    public void close() {
+        timeouts.stop();
+    }
+
+    private Sku sku(String sku) {
+        Sku state = skus.get(sku);
+        if (state == null) {
+            throw new IllegalArgumentException("Unknown SKU: " + sku);
+        }
+        return state;
+    }
+}
+
+/**
+ * Units of one product held for a checkout.
+ */
+class Reservation {
+    static final int ACTIVE = 0;
+    static final int COMMITTED = 1;
+    static final int RELEASED = 2;
+    static final int EXPIRED = 3;
+
+    final InventoryReservations.Sku sku;
+    final int quantity;
+    private final AtomicInteger state = new AtomicInteger(ACTIVE);
+    volatile DelayedTask timer;
+
+    Reservation(InventoryReservations.Sku sku, int quantity) {
+        this.sku = sku;
+        this.quantity = quantity;
+    }
+
+    public String getSku() {
+        return sku.id;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public boolean isActive() {
+        return state.get() == ACTIVE;
+    }
+
+    /**
+     * Moves the reservation out of ACTIVE; only the first caller wins.
+     */
+    boolean finish(int outcome) {
+        return state.compareAndSet(ACTIVE, outcome);
+    }
+}
+
+/**
+ * Flash sale on one product: several threads reserve one unit at a time and
+ * commit most of the reservations, releasing the rest. Reports reservations
+ * per second and contention with one stripe and with several, then checks
+ * that abandoned reservations time out, that stock never oversold and that
+ * a catalog's availability follows sales and restocks.
+ *
+ * Usage: java com.example.javaguide.InventoryBenchmark [threads] [reservationsPerThread]
+ */
+class InventoryBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        // Less stock than demand, so the sale sells out part way through
+        int stock = threads * perThread / 2;
+
+        for (int round = 1; round <= 2; round++) {
+            for (int stripes : new int[] {1, threads}) {
+                run(threads, perThread, stock, stripes);
+            }
+        }
+
+        try (InventoryReservations inventory = new InventoryReservations(Duration.ofMillis(100))) {
+            Product item = new Product("Console", 499.00, 100);
+            inventory.track("console", item);
+            for (int i = 0; i < 40; i++) {
+                inventory.reserve("console", 1);
+            }
+            out.printf("Abandoned 40 reservations: %d available", inventory.available("console"));
+            Thread.sleep(300);
+            out.printf(", %d after the timeout (%d expired)%n",
+                inventory.available("console"), inventory.contention("console").expired());
+        }
+
+        try (InventoryReservations inventory = new InventoryReservations()) {
+            Product item = new Product("Headphones", 79.00, 3);
+            ProductCatalog catalog = new ProductCatalog(List.of(item));
+            inventory.track("headphones", item, 1, catalog.stockUpdates(0));
+            for (int i = 0; i < 3; i++) {
+                inventory.commit(inventory.reserve("headphones", 1));
+            }
+            int soldOut = catalog.countAvailableBetween(Money.of(0.00), Money.of(100.00));
+            inventory.restock("headphones", 5);
+            int restocked = catalog.countAvailableBetween(Money.of(0.00), Money.of(100.00));
+            if (soldOut != 0 || restocked != 1 || item.getStockQuantity() != 5) {
+                throw new IllegalStateException("Catalog availability did not follow the stock");
+            }
+            out.printf("Catalog: %d available after selling out, %d after restocking%n", soldOut, restocked);
+        }
+    }
+
+    private static void run(int threads, int perThread, int stock, int stripes) throws InterruptedException {
+        try (InventoryReservations inventory = new InventoryReservations()) {
+            Product item = new Product("Limited sneaker", 199.99, stock);
+            inventory.track("sneaker", item, stripes);
+            List<Thread> workers = new ArrayList<>();
+            long begin = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        Reservation reservation = inventory.reserve("sneaker", 1);
+                        if (reservation == null) {
+                            continue;
+                        }
+                        // One checkout in ten is abandoned at the payment step
+                        if (i % 10 == 0) {
+                            inventory.release(reservation);
+                        } else {
+                            inventory.commit(reservation);
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long nanos = System.nanoTime() - begin;
+            InventoryReservations.Contention contention = inventory.contention("sneaker");
+            long sold = stock - item.getStockQuantity();
+            if (item.getStockQuantity() < 0 || sold + inventory.available("sneaker") != stock) {
+                throw new IllegalStateException("Stock is inconsistent: sold " + sold
+                    + ", available " + inventory.available("sneaker"));
+            }
+            out.printf("%d threads, %d stripe(s): %,.0f reservations/s, %s, %,d sold of %,d%n",
+                threads, stripes, contention.reserved() * 1e9 / nanos, contention, sold, stock);
+        }
+    }
+}
@@ -19,18 +19,29 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -345,18 +356,21 @@ public class ModernJava {
         out.println("Available shipping methods: " + availableShippingMethods);
         out.println("USD to EUR rate: " + currencyExchangeRates.get("EUR"));
         
-        // HashMap for a user database
-        Map<String, User> users = new HashMap<>();
-        users.put("john123", new User("John Doe", "john@example.com"));
-        users.put("alice456", new User("Alice Smith", "alice@example.com"));
+        // User directory indexed by username and email
+        UserDirectory users = new UserDirectory();
+        users.add("john123", new User("John Doe", "john@example.com"));
+        users.add("johanna7", new User("Johanna Berg", "johanna@example.com"));
+        users.add("alice456", new User("Alice Smith", "alice@example.com"));
         
         String username = "john123";
-        if (users.containsKey(username)) {
+        if (users.contains(username)) {
             User user = users.get(username);
             out.println("Found user: " + user.getName() + " (" + user.getEmail() + ")");
         } else {
             out.println("User not found");
         }
+        out.println("Usernames starting with \"jo\": " + users.complete("jo", 10));
+        out.println("Owner of Alice@Example.com: " + users.findByEmail("Alice@Example.com").getName());
         
         // Using forEach with lambda expressions
         out.println("All users:");
@@ -392,10 +406,10 @@ public class ModernJava {
             new Product("Mouse Pad", 9.99, 100)
         };
         
-        double cartTotal = 0;
+        Money cartTotal = Money.zero(Money.DEFAULT_CURRENCY);
         for (Product item : cart) {
             out.println(item.getName() + ": $" + item.getPrice());
-            cartTotal += item.getPrice();
+            cartTotal = cartTotal.plus(item.getPrice());
             
             // Using instanceof pattern matching (Java 16+)
             if (item instanceof DigitalProduct digitalItem) {
@@ -406,7 +420,8 @@ public class ModernJava {
         
         // Interface example
         PaymentProcessor creditCardProcessor = new CreditCardProcessor();
-        creditCardProcessor.processPayment(cartTotal);
+        creditCardProcessor.processPayment(cartTotal.doubleValue());
+        out.println("Credit card fee: $" + PaymentMethod.CREDIT_CARD.calculateFee(cartTotal));
         
         // Abstract class example
         Vehicle car = new Car("Toyota", "Camry", 2025, 4);
@@ -462,7 +477,7 @@ public class ModernJava {
         List<Double> prices = List.of(29.99, 9.99, 5.49, 499.99, 19.95);
         DoubleSummaryStatistics stats = prices.stream()
             .mapToDouble(Double::doubleValue)
-            .summaryStatistics();
+            .collect(DoubleSummaryStatistics::new, DoubleSummaryStatistics::accept, DoubleSummaryStatistics::combine);
         
         out.println("Price statistics:");
         out.println("  Count: " + stats.getCount());
@@ -470,6 +485,8 @@ public class ModernJava {
         out.println("  Min: $" + stats.getMin());
         out.println("  Max: $" + stats.getMax());
         out.println("  Sum: $" + stats.getSum());
+        out.printf("  Std deviation: $%.2f%n", stats.getStandardDeviation());
+        out.printf("  Median (approx.): $%.2f%n", stats.getP50());
         
         // Lambda expressions and functional interfaces
         // Predicate - tests a condition
@@ -559,6 +576,13 @@ public class ModernJava {
             out.printf("  %s: $%.2f%n", category, total)
         );
         
+        // The columnar engine gives the same totals plus count/min/max/average
+        SalesTable salesTable = SalesTable.of(sales);
+        out.println("Sales statistics by category:");
+        salesTable.statsByCategory().forEach((category, stats) ->
+            out.printf("  %s: %d sales, average $%.2f%n", category, stats.count(), stats.average())
+        );
+        
         // Example 3: Task scheduler using enums
         out.println("\n3. Task Scheduler Example");
         TaskScheduler scheduler = new TaskScheduler();
@@ -568,6 +592,21 @@ public class ModernJava {
         scheduler.scheduleTask("Archive old records", TaskPriority.LOW);
         
         scheduler.processTasks();
+        
+        // The same scheduler can also run tasks on a pool of worker threads
+        TaskScheduler workerScheduler = new TaskScheduler();
+        workerScheduler.start(2);
+        for (int i = 1; i <= 3; i++) {
+            int batch = i;
+            workerScheduler.scheduleTask("Batch " + batch, TaskPriority.MEDIUM,
+                () -> out.println("  Worker processed batch " + batch));
+        }
+        try {
+            workerScheduler.shutdown(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workerScheduler.printStatistics();
     }
 }
 
@@ -597,10 +636,14 @@ class User {
  */
 class Product {
     private String name;
-    private double price;
+    private Money price;
     private int stockQuantity;
     
     public Product(String name, double price, int stockQuantity) {
+        this(name, Money.of(price), stockQuantity);
+    }
+    
+    public Product(String name, Money price, int stockQuantity) {
         this.name = name;
         this.price = price;
         this.stockQuantity = stockQuantity;
@@ -610,7 +653,7 @@ class Product {
         return name;
     }
     
-    public double getPrice() {
+    public Money getPrice() {
         return price;
     }
     
@@ -618,9 +661,16 @@ class Product {
         return stockQuantity;
     }
     
+    public void setStockQuantity(int stockQuantity) {
+        if (stockQuantity < 0) {
+            throw new IllegalArgumentException("Stock cannot be negative: " + stockQuantity);
+        }
+        this.stockQuantity = stockQuantity;
+    }
+    
     public void applyDiscount(double percentDiscount) {
         if (percentDiscount > 0 && percentDiscount <= 100) {
-            price = price * (1 - percentDiscount / 100);
+            price = price.minus(price.percentage(percentDiscount));
         }
     }
     
@@ -638,6 +688,11 @@ class DigitalProduct extends Product {
     
     public DigitalProduct(String name, double price, int stockQuantity, 
                          String fileFormat, double fileSizeMB) {
+        this(name, Money.of(price), stockQuantity, fileFormat, fileSizeMB);
+    }
+    
+    public DigitalProduct(String name, Money price, int stockQuantity,
+                         String fileFormat, double fileSizeMB) {
         super(name, price, stockQuantity);
         this.fileFormat = fileFormat;
         this.fileSizeMB = fileSizeMB;
@@ -787,8 +842,12 @@ enum PaymentMethod {
         this.displayName = displayName;
     }
     
-    public double calculateFee(double amount) {
-        return amount * (feePercentage / 100);
+    public Money calculateFee(Money amount) {
+        return amount.percentage(feePercentage);
+    }
+    
+    public double getFeePercentage() {
+        return feePercentage;
     }
     
     public String getDisplayName() {
@@ -833,27 +892,424 @@ enum TaskPriority {
 
 /**
  * A task scheduler example using enums and priority queues.
+ *
+ * Producers may call scheduleTask from any thread; tasks go into one lock-free
+ * queue per priority. Tasks are either drained on the caller's thread with
+ * processTasks(), or executed by a pool of workers started with start(n).
+ * Workers age waiting tasks so that LOW tasks cannot starve behind a steady
+ * stream of HIGH ones.
  */
 class TaskScheduler {
-    private final Map<TaskPriority, List<String>> tasksByPriority = new HashMap<>();
-    
+    private static final Duration DEFAULT_AGING_INTERVAL = Duration.ofMillis(100);
+    private static final TaskPriority[] PRIORITIES = TaskPriority.values();
+
+    private final Map<TaskPriority, Queue<ScheduledTask>> tasksByPriority = new EnumMap<>(TaskPriority.class);
+    private final Map<TaskPriority, QueueLatency> latencyByPriority = new EnumMap<>(TaskPriority.class);
+    private final long agingIntervalNanos;
+    // Null unless the scheduler was created in durable mode
+    private final TaskWriteAheadLog writeAheadLog;
+
+    // One permit per queued task, plus one per worker when shutting down
+    private final Semaphore available = new Semaphore(0);
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+    private volatile boolean shutdown;
+    private volatile long startNanos = System.nanoTime();
+    // Created on first use so schedulers without delayed tasks start no timer thread
+    private volatile TimingWheel timingWheel;
+    // Write-ahead log ids of one-shot delayed tasks not yet fired, to complete them if they are cancelled
+    private final Map<DelayedTask, Long> delayedWalIds = new ConcurrentHashMap<>();
+
     public TaskScheduler() {
-        // Initialize lists for each priority level
-        for (TaskPriority priority : TaskPriority.values()) {
-            tasksByPriority.put(priority, new ArrayList<>());
+        this(DEFAULT_AGING_INTERVAL);
+    }
+
+    /**
+     * @param agingInterval how long a task must wait to be promoted by one priority level
+     */
+    public TaskScheduler(Duration agingInterval) {
+        this(agingInterval, null, null);
+    }
+
+    /**
+     * Creates a durable scheduler: every queued task is written to a
+     * write-ahead log in the given directory before scheduleTask returns, and
+     * tasks still pending from a previous run are queued again right away.
+     * Only descriptions are stored, so recoveredTaskActions turns a recovered
+     * description back into the action to run; a task it returns null for stays
+     * pending in the log. Delayed tasks are logged when they are scheduled, so
+     * they survive a crash too, but their delay is not stored: recovered ones
+     * are queued right away. Cancelling one is recorded in the log at shutdown.
+     * Recurring tasks are not logged as a schedule, only each run once it is
+     * queued; set them up again with scheduleAtFixedRate after a restart.
+     */
+    public TaskScheduler(Path walDirectory, Function<String, Runnable> recoveredTaskActions) throws IOException {
+        this(DEFAULT_AGING_INTERVAL, TaskWriteAheadLog.open(walDirectory), recoveredTaskActions);
+    }
+
+    private TaskScheduler(Duration agingInterval, TaskWriteAheadLog writeAheadLog,
+                          Function<String, Runnable> recoveredTaskActions) {
+        if (agingInterval.isNegative() || agingInterval.isZero()) {
+            throw new IllegalArgumentException("Aging interval must be positive");
+        }
+        this.agingIntervalNanos = agingInterval.toNanos();
+        this.writeAheadLog = writeAheadLog;
+        // Initialize a queue for each priority level
+        for (TaskPriority priority : PRIORITIES) {
+            tasksByPriority.put(priority, new ConcurrentLinkedQueue<>());
+            latencyByPriority.put(priority, new QueueLatency());
+        }
+        if (writeAheadLog != null) {
+            for (TaskWriteAheadLog.PendingTask task : writeAheadLog.recoveredTasks()) {
+                Runnable action = recoveredTaskActions.apply(task.description());
+                if (action == null) {
+                    System.out.println("No action for recovered task, left pending: " + task.description());
+                    continue;
+                }
+                offer(new ScheduledTask(task.description(), task.priority(), action, System.nanoTime(), task.id()));
+            }
         }
     }
     
     public void scheduleTask(String taskDescription, TaskPriority priority) {
-        tasksByPriority.get(priority).add(taskDescription);
+        scheduleTask(taskDescription, priority, () -> System.out.println("  - " + taskDescription));
         System.out.println("Scheduled: " + taskDescription + " (" + priority.getDescription() + ")");
     }
+
+    /**
+     * Schedules a task for execution. Safe to call from many threads at once.
+     */
+    public void scheduleTask(String taskDescription, TaskPriority priority, Runnable action) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down: " + taskDescription);
+        }
+        enqueue(taskDescription, priority, action);
+    }
+
+    /**
+     * Schedules a task to be queued once the delay has passed.
+     */
+    public DelayedTask scheduleTask(String taskDescription, TaskPriority priority, Duration delay) {
+        return scheduleTask(taskDescription, priority, delay,
+            () -> System.out.println("  - " + taskDescription));
+    }
+
+    public DelayedTask scheduleTask(String taskDescription, TaskPriority priority, Duration delay,
+                                    Runnable action) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down: " + taskDescription);
+        }
+        if (writeAheadLog == null) {
+            return timingWheel().schedule(taskDescription, priority, action, delay.toNanos());
+        }
+        // Log before the timer exists, so a crash before it fires cannot lose the task.
+        // The id travels with the action, so the timer may fire before the map below is updated.
+        long walId = writeAheadLog.appendScheduled(priority, taskDescription);
+        DelayedTask task = timingWheel().schedule(taskDescription, priority,
+            new LoggedAction(walId, action), delay.toNanos());
+        delayedWalIds.put(task, walId);
+        if (task.hasFired()) {
+            delayedWalIds.remove(task);
+        }
+        return task;
+    }
+
+    /**
+     * Queues the task every period, starting after the initial delay.
+     * Cancel the returned handle to stop it. In durable mode each run is
+     * logged when it is queued, but the schedule itself is not.
+     */
+    public DelayedTask scheduleAtFixedRate(String taskDescription, TaskPriority priority,
+                                           Duration initialDelay, Duration period, Runnable action) {
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down: " + taskDescription);
+        }
+        return timingWheel().scheduleAtFixedRate(taskDescription, priority, action,
+            initialDelay.toNanos(), period.toNanos());
+    }
+
+    public int getDelayedTaskCount() {
+        TimingWheel wheel = timingWheel;
+        return wheel == null ? 0 : wheel.size();
+    }
+
+    private TimingWheel timingWheel() {
+        TimingWheel wheel = timingWheel;
+        if (wheel == null) {
+            synchronized (this) {
+                wheel = timingWheel;
+                if (wheel == null) {
+                    // 1 ms ticks, 512 buckets per level
+                    wheel = new TimingWheel(1, TimeUnit.MILLISECONDS, 512, this::onTimerExpired);
+                    timingWheel = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    private void onTimerExpired(DelayedTask task) {
+        // Timers that fire while shutting down are dropped; durable ones stay in the log
+        if (shutdown) {
+            return;
+        }
+        if (task.action instanceof LoggedAction logged) {
+            delayedWalIds.remove(task);
+            offer(new ScheduledTask(task.getDescription(), task.getPriority(), logged.action(), System.nanoTime(),
+                logged.walId()));
+        } else {
+            enqueue(task.getDescription(), task.getPriority(), task.action);
+        }
+    }
+
+    private void enqueue(String taskDescription, TaskPriority priority, Runnable action) {
+        // In durable mode the task is on disk before it becomes visible to workers
+        long walId = writeAheadLog == null ? 0 : writeAheadLog.appendScheduled(priority, taskDescription);
+        offer(new ScheduledTask(taskDescription, priority, action, System.nanoTime(), walId));
+    }
+
+    /**
+     * Completes the log records of delayed tasks that were cancelled, so they
+     * are not recovered after a restart.
+     */
+    private void forgetCancelledDelayedTasks() {
+        delayedWalIds.entrySet().removeIf(entry -> {
+            if (entry.getKey().isCancelled()) {
+                writeAheadLog.markCompleted(entry.getValue());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void offer(ScheduledTask task) {
+        tasksByPriority.get(task.priority()).offer(task);
+        available.release();
+    }
     
+    /**
+     * Drains all queued tasks on the calling thread, in strict priority order.
+     */
     public void processTasks() {
         System.out.println("Processing tasks in priority order:");
         
         // Process tasks in order of priority
-        for (TaskPriority priority : TaskPriority.values()) {
-            List<String> tasks = tasksByPriority.get(priority);
+        for (TaskPriority priority : PRIORITIES) {
+            Queue<ScheduledTask> tasks = tasksByPriority.get(priority);
             if (!tasks.isEmpty()) {
-                System
\ No newline at end of file
+                System.out.println(priority.getDescription() + ":");
+            }
+            while (available.tryAcquire()) {
+                ScheduledTask task = tasks.poll();
+                if (task == null) {
+                    available.release();
+                    break;
+                }
+                execute(task);
+            }
+        }
+    }
+
+    /**
+     * Starts a pool of worker threads that execute tasks as they arrive.
+     */
+    public synchronized void start(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be at least 1");
+        }
+        if (running || shutdown) {
+            throw new IllegalStateException("Scheduler already started");
+        }
+        running = true;
+        startNanos = System.nanoTime();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "task-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, lets the workers finish everything already queued
+     * and waits for them to exit.
+     *
+     * @return true if all workers finished before the timeout
+     */
+    public synchronized boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown = true;
+        // Delayed and recurring tasks that have not fired yet are discarded
+        if (timingWheel != null) {
+            timingWheel.stop();
+        }
+        running = false;
+        // Wake every worker once more; a worker exits when it finds nothing left to run
+        available.release(workers.size());
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean finished = true;
+        for (Thread worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+            }
+            if (worker.isAlive()) {
+                finished = false;
+                break;
+            }
+        }
+        // Close the log even on timeout; tasks still running then are simply run again after a restart
+        if (writeAheadLog != null) {
+            forgetCancelledDelayedTasks();
+            try {
+                writeAheadLog.close();
+            } catch (IOException e) {
+                System.out.println("Could not close write-ahead log: " + e.getMessage());
+            }
+        }
+        return finished;
+    }
+
+    private void runWorker() {
+        while (true) {
+            try {
+                available.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ScheduledTask task = pollNext();
+            if (task != null) {
+                execute(task);
+            } else if (!running) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Picks the task with the best effective priority: its base level minus one
+     * level for every aging interval it has spent in the queue. Ties go to the
+     * higher base priority.
+     */
+    private ScheduledTask pollNext() {
+        while (true) {
+            long now = System.nanoTime();
+            Queue<ScheduledTask> best = null;
+            long bestLevel = Long.MAX_VALUE;
+            for (TaskPriority priority : PRIORITIES) {
+                Queue<ScheduledTask> queue = tasksByPriority.get(priority);
+                ScheduledTask head = queue.peek();
+                if (head != null) {
+                    long effectiveLevel = priority.getLevel() - (now - head.enqueuedNanos()) / agingIntervalNanos;
+                    if (effectiveLevel < bestLevel) {
+                        bestLevel = effectiveLevel;
+                        best = queue;
+                    }
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            ScheduledTask task = best.poll();
+            if (task != null) {
+                return task;
+            }
+            // Another worker took that head first; look again
+        }
+    }
+
+    private void execute(ScheduledTask task) {
+        latencyByPriority.get(task.priority()).record(System.nanoTime() - task.enqueuedNanos());
+        try {
+            task.action().run();
+        } catch (RuntimeException e) {
+            failedTasks.increment();
+            System.out.println("Task failed: " + task.description() + " (" + e.getMessage() + ")");
+            return;
+        }
+        completedTasks.increment();
+        // Only a successful run completes the log record; a failed task is retried after a restart
+        if (task.walId() != 0) {
+            writeAheadLog.markCompleted(task.walId());
+        }
+    }
+
+    public int getPendingTaskCount(TaskPriority priority) {
+        return tasksByPriority.get(priority).size();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTasks.sum();
+    }
+
+    public long getFailedTaskCount() {
+        return failedTasks.sum();
+    }
+
+    /**
+     * Completed tasks per second since the workers were started.
+     */
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : completedTasks.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * Average time tasks of the given priority spent waiting in the queue.
+     */
+    public double getAverageQueueLatencyMillis(TaskPriority priority) {
+        return latencyByPriority.get(priority).averageNanos() / 1e6;
+    }
+
+    public double getMaxQueueLatencyMillis(TaskPriority priority) {
+        return latencyByPriority.get(priority).max.get() / 1e6;
+    }
+
+    public void printStatistics() {
+        System.out.printf("Completed: %d (failed: %d), throughput: %.0f tasks/sec%n",
+            getCompletedTaskCount(), getFailedTaskCount(), getThroughput());
+        for (TaskPriority priority : PRIORITIES) {
+            System.out.printf("  %s: avg wait %.3f ms, max wait %.3f ms%n",
+                priority.getDescription(),
+                getAverageQueueLatencyMillis(priority),
+                getMaxQueueLatencyMillis(priority));
+        }
+    }
+
+    private record ScheduledTask(String description, TaskPriority priority,
+                                 Runnable action, long enqueuedNanos, long walId) {}
+
+    /**
+     * The action of a durable delayed task, carrying its log id through the timing wheel.
+     */
+    private record LoggedAction(long walId, Runnable action) implements Runnable {
+        @Override
+        public void run() {
+            action.run();
+        }
+    }
+
+    /**
+     * Queue wait statistics for one priority, updated without locks.
+     */
+    private static final class QueueLatency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        double averageNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) totalNanos.sum() / n;
+        }
+    }
+}
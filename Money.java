@@ -0,0 +1,274 @@
+package com.example.javaguide;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+import static java.lang.System.out;
+
+/**
+ * An exact amount of money stored as a scaled long (cents for USD, whole yen
+ * for JPY, ...), together with its currency and the rounding mode used when
+ * a calculation produces fractions of the smallest unit.
+ *
+ * Addition, subtraction, quantities and percentages are done with overflow
+ * checked long arithmetic. Only when a result would not fit in a long, or a
+ * percentage has more than four decimals, does the calculation fall back to
+ * BigDecimal. Unlike BigDecimal, the common path creates no BigInteger or
+ * intermediate objects; the only allocation is the result itself, and the
+ * JIT removes even that when the value does not escape.
+ */
+final class Money implements Comparable<Money> {
+    static final Currency DEFAULT_CURRENCY = Currency.getInstance("USD");
+
+    // Percentages are handled in units of 0.0001%
+    private static final long PERCENT_SCALE = 10_000;
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L
+    };
+
+    private final long units;
+    private final Currency currency;
+    private final RoundingMode roundingMode;
+
+    private Money(long units, Currency currency, RoundingMode roundingMode) {
+        this.units = units;
+        this.currency = currency;
+        this.roundingMode = roundingMode;
+    }
+
+    public static Money of(double amount) {
+        return of(amount, DEFAULT_CURRENCY);
+    }
+
+    public static Money of(double amount, Currency currency) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        }
+        // BigDecimal.valueOf uses the shortest decimal form, so 19.99 stays 19.99
+        return of(BigDecimal.valueOf(amount), currency, RoundingMode.HALF_EVEN);
+    }
+
+    public static Money of(String amount, Currency currency) {
+        return of(new BigDecimal(amount), currency, RoundingMode.HALF_EVEN);
+    }
+
+    public static Money of(BigDecimal amount, Currency currency, RoundingMode roundingMode) {
+        BigDecimal scaled = amount.setScale(scaleOf(currency), roundingMode);
+        return new Money(scaled.unscaledValue().longValueExact(), currency, roundingMode);
+    }
+
+    /**
+     * Creates an amount directly from the smallest currency unit, e.g. 1999 cents.
+     */
+    public static Money ofMinor(long minorUnits, Currency currency) {
+        scaleOf(currency);
+        return new Money(minorUnits, currency, RoundingMode.HALF_EVEN);
+    }
+
+    public static Money zero(Currency currency) {
+        return ofMinor(0, currency);
+    }
+
+    public long getMinorUnits() {
+        return units;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public RoundingMode getRoundingMode() {
+        return roundingMode;
+    }
+
+    public Money withRoundingMode(RoundingMode mode) {
+        return mode == roundingMode ? this : new Money(units, currency, mode);
+    }
+
+    public Money plus(Money other) {
+        checkCurrency(other);
+        return new Money(Math.addExact(units, other.units), currency, roundingMode);
+    }
+
+    public Money minus(Money other) {
+        checkCurrency(other);
+        return new Money(Math.subtractExact(units, other.units), currency, roundingMode);
+    }
+
+    public Money times(long quantity) {
+        return new Money(Math.multiplyExact(units, quantity), currency, roundingMode);
+    }
+
+    /**
+     * Returns the given percentage of this amount, e.g. percentage(7) for 7% tax,
+     * rounded to the smallest currency unit with this amount's rounding mode.
+     */
+    public Money percentage(double percent) {
+        double scaled = Math.rint(percent * PERCENT_SCALE);
+        if (scaled / PERCENT_SCALE == percent && Math.abs(scaled) < 1L << 53) {
+            long factor = (long) scaled;
+            long high = Math.multiplyHigh(units, factor);
+            long low = units * factor;
+            // The product fits in a long when the high word is just the sign of the low word
+            if (high == (low >> 63)) {
+                return new Money(divideRounded(low, 100 * PERCENT_SCALE, roundingMode), currency, roundingMode);
+            }
+        }
+        BigDecimal exact = toBigDecimal()
+            .multiply(BigDecimal.valueOf(percent))
+            .movePointLeft(2);
+        return of(exact, currency, roundingMode);
+    }
+
+    public int signum() {
+        return Long.signum(units);
+    }
+
+    public boolean isZero() {
+        return units == 0;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(units, scaleOf(currency));
+    }
+
+    public double doubleValue() {
+        return (double) units / POWERS_OF_TEN[scaleOf(currency)];
+    }
+
+    /**
+     * Formats the amount with its currency code, e.g. "USD 19.99".
+     */
+    public String format() {
+        return currency.getCurrencyCode() + " " + this;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(units, other.units);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Money other && units == other.units && currency.equals(other.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(units) + currency.hashCode();
+    }
+
+    /**
+     * The plain amount, e.g. "19.99", so it reads naturally after a currency symbol.
+     */
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    /**
+     * Integer division that rounds the remainder according to the given mode.
+     */
+    static long divideRounded(long dividend, long divisor, RoundingMode mode) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        int sign = (dividend < 0) == (divisor < 0) ? 1 : -1;
+        long absRemainder = Math.abs(remainder);
+        // Compare the remainder with half of the divisor without overflowing
+        int half = Long.compare(absRemainder, Math.abs(divisor) - absRemainder);
+        boolean roundAway = switch (mode) {
+            case DOWN -> false;
+            case UP -> true;
+            case FLOOR -> sign < 0;
+            case CEILING -> sign > 0;
+            case HALF_UP -> half >= 0;
+            case HALF_DOWN -> half > 0;
+            case HALF_EVEN -> half > 0 || (half == 0 && (quotient & 1) != 0);
+            case UNNECESSARY -> throw new ArithmeticException("Rounding necessary");
+        };
+        return roundAway ? quotient + sign : quotient;
+    }
+
+    private void checkCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " vs " + other.currency);
+        }
+    }
+
+    private static int scaleOf(Currency currency) {
+        int digits = currency.getDefaultFractionDigits();
+        if (digits < 0 || digits >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Unsupported currency: " + currency);
+        }
+        return digits;
+    }
+}
+
+/**
+ * Compares Money with BigDecimal on a shopping cart calculation
+ * (price × quantity, minus discount, plus 7% tax), checking that both give
+ * the same result and reporting time and allocated bytes per item.
+ *
+ * Usage: java com.example.javaguide.MoneyBenchmark [items]
+ */
+class MoneyBenchmark {
+
+    public static void main(String[] args) {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long[] pricesInCents = new long[items];
+        int[] quantities = new int[items];
+        for (int i = 0; i < items; i++) {
+            pricesInCents[i] = 99 + (i * 7919L) % 99_900;
+            quantities[i] = 1 + i % 5;
+        }
+
+        for (int round = 1; round <= 5; round++) {
+            long allocatedBefore = BenchmarkMemory.allocatedBytes();
+            long begin = System.nanoTime();
+            Money moneyTotal = cartWithMoney(pricesInCents, quantities);
+            long moneyNanos = System.nanoTime() - begin;
+            long moneyBytes = BenchmarkMemory.allocatedBytes() - allocatedBefore;
+
+            allocatedBefore = BenchmarkMemory.allocatedBytes();
+            begin = System.nanoTime();
+            BigDecimal decimalTotal = cartWithBigDecimal(pricesInCents, quantities);
+            long decimalNanos = System.nanoTime() - begin;
+            long decimalBytes = BenchmarkMemory.allocatedBytes() - allocatedBefore;
+
+            if (moneyTotal.toBigDecimal().compareTo(decimalTotal) != 0) {
+                throw new IllegalStateException("Totals differ: " + moneyTotal + " vs " + decimalTotal);
+            }
+            out.printf("Round %d: total %s | Money %.1f ns/item, %.1f B/item | BigDecimal %.1f ns/item, %.1f B/item%n",
+                round, moneyTotal.format(),
+                (double) moneyNanos / items, (double) moneyBytes / items,
+                (double) decimalNanos / items, (double) decimalBytes / items);
+        }
+    }
+
+    private static Money cartWithMoney(long[] pricesInCents, int[] quantities) {
+        Money total = Money.zero(Money.DEFAULT_CURRENCY);
+        for (int i = 0; i < pricesInCents.length; i++) {
+            Money line = Money.ofMinor(pricesInCents[i], Money.DEFAULT_CURRENCY).times(quantities[i]);
+            line = line.minus(line.percentage(15));
+            total = total.plus(line).plus(line.percentage(7));
+        }
+        return total;
+    }
+
+    private static BigDecimal cartWithBigDecimal(long[] pricesInCents, int[] quantities) {
+        BigDecimal fifteen = new BigDecimal("0.15");
+        BigDecimal seven = new BigDecimal("0.07");
+        BigDecimal total = BigDecimal.ZERO.setScale(2);
+        for (int i = 0; i < pricesInCents.length; i++) {
+            BigDecimal line = BigDecimal.valueOf(pricesInCents[i], 2).multiply(BigDecimal.valueOf(quantities[i]));
+            line = line.subtract(line.multiply(fifteen).setScale(2, RoundingMode.HALF_EVEN));
+            total = total.add(line).add(line.multiply(seven).setScale(2, RoundingMode.HALF_EVEN));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,329 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+import static java.lang.System.out;
+
+/**
+ * Products indexed for queries such as "available products between $10 and
+ * $50", answered without touching the Product objects that do not match.
+ *
+ * Products get ids 0..n-1 in the order given. Three indexes are kept:
+ *  - prices in cents sorted ascending, with the id of each price in a
+ *    parallel int array, so a price range is two binary searches;
+ *  - an availability bitmap with one bit per id, set while isAvailable();
+ *  - a bitmap of the digital products.
+ * Combined predicates AND the bitmaps one 64-bit word at a time. A price
+ * range that selects only a few products is checked against the
+ * availability bit directly instead of being turned into a bitmap first.
+ *
+ * The price index is built once, so prices must not change while the
+ * catalog is in use. Stock changes go through setStock(), which updates the
+ * product and its availability bit; the bitmap is an AtomicLongArray, so
+ * queries may run while stock changes. A product whose stock is managed by
+ * InventoryReservations is tracked with stockUpdates(id), so sales and
+ * restocks reach the bitmap the same way.
+ */
+class ProductCatalog {
+    private final Product[] products;
+    private final Currency currency;
+    private final long[] sortedPrices;
+    private final int[] idsByPrice;
+    private final AtomicLongArray available;
+    private final long[] digital;
+
+    public ProductCatalog(List<? extends Product> products) {
+        int n = products.size();
+        this.products = products.toArray(new Product[0]);
+        this.currency = n == 0 ? Money.DEFAULT_CURRENCY : this.products[0].getPrice().getCurrency();
+        this.available = new AtomicLongArray(words(n));
+        this.digital = new long[words(n)];
+
+        // Sort (price, id) pairs packed in one long: ids fit in 31 bits and prices
+        // are shifted above them, so a primitive sort orders by price, then id
+        long[] packed = new long[n];
+        for (int id = 0; id < n; id++) {
+            Product product = this.products[id];
+            Money price = product.getPrice();
+            if (!price.getCurrency().equals(currency)) {
+                throw new IllegalArgumentException("All products must be priced in " + currency + ": " + product.getName());
+            }
+            long cents = price.getMinorUnits();
+            if (cents < 0 || cents >= 1L << 32) {
+                throw new IllegalArgumentException("Price out of range for the index: " + product.getName());
+            }
+            packed[id] = cents << 31 | id;
+            if (product.isAvailable()) {
+                available.set(id >>> 6, available.get(id >>> 6) | 1L << id);
+            }
+            if (product instanceof DigitalProduct) {
+                digital[id >>> 6] |= 1L << id;
+            }
+        }
+        Arrays.sort(packed);
+        this.sortedPrices = new long[n];
+        this.idsByPrice = new int[n];
+        for (int i = 0; i < n; i++) {
+            sortedPrices[i] = packed[i] >>> 31;
+            idsByPrice[i] = (int) (packed[i] & Integer.MAX_VALUE);
+        }
+    }
+
+    public int size() {
+        return products.length;
+    }
+
+    public Product get(int id) {
+        return products[id];
+    }
+
+    /**
+     * Sets a product's stock and keeps the availability bitmap in step.
+     */
+    public void setStock(int id, int quantity) {
+        Product product = products[id];
+        synchronized (product) {
+            product.setStockQuantity(quantity);
+            setBit(available, id, product.isAvailable());
+        }
+    }
+
+    /**
+     * Stock updates for one product, for InventoryReservations.track().
+     */
+    public IntConsumer stockUpdates(int id) {
+        Objects.checkIndex(id, products.length);
+        return quantity -> setStock(id, quantity);
+    }
+
+    /**
+     * Available products priced from min to max inclusive, cheapest first.
+     */
+    public List<Product> availableBetween(Money min, Money max) {
+        int from = lowerBound(cents(min));
+        int to = upperBound(cents(max));
+        List<Product> matches = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int id = idsByPrice[i];
+            if ((available.get(id >>> 6) & 1L << id) != 0) {
+                matches.add(products[id]);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Number of available products priced from min to max inclusive.
+     */
+    public int countAvailableBetween(Money min, Money max) {
+        int from = lowerBound(cents(min));
+        int to = upperBound(cents(max));
+        // Few matches: probing their bits is cheaper than building and scanning a bitmap
+        if (to - from < products.length >>> 6) {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int id = idsByPrice[i];
+                if ((available.get(id >>> 6) & 1L << id) != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        return cardinality(intersect(priceBitmap(min, max), availabilityBitmap()));
+    }
+
+    /**
+     * Bitmap of the products priced from min to max inclusive.
+     */
+    public long[] priceBitmap(Money min, Money max) {
+        long[] bitmap = new long[words(products.length)];
+        int to = upperBound(cents(max));
+        for (int i = lowerBound(cents(min)); i < to; i++) {
+            int id = idsByPrice[i];
+            bitmap[id >>> 6] |= 1L << id;
+        }
+        return bitmap;
+    }
+
+    /**
+     * A copy of the availability bitmap as it is now.
+     */
+    public long[] availabilityBitmap() {
+        long[] bitmap = new long[available.length()];
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = available.get(i);
+        }
+        return bitmap;
+    }
+
+    public long[] digitalBitmap() {
+        return digital.clone();
+    }
+
+    /**
+     * ANDs other into bitmap and returns bitmap.
+     */
+    static long[] intersect(long[] bitmap, long[] other) {
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] &= other[i];
+        }
+        return bitmap;
+    }
+
+    static int cardinality(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * The products whose bits are set, in id order.
+     */
+    public List<Product> products(long[] bitmap) {
+        List<Product> selected = new ArrayList<>(cardinality(bitmap));
+        for (int w = 0; w < bitmap.length; w++) {
+            for (long word = bitmap[w]; word != 0; word &= word - 1) {
+                selected.add(products[w << 6 | Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return selected;
+    }
+
+    private long cents(Money amount) {
+        if (!amount.getCurrency().equals(currency)) {
+            throw new IllegalArgumentException("Catalog prices are in " + currency + ", not " + amount.getCurrency());
+        }
+        return amount.getMinorUnits();
+    }
+
+    /**
+     * First index whose price is at least cents.
+     */
+    private int lowerBound(long cents) {
+        int low = 0;
+        int high = sortedPrices.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPrices[mid] < cents) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First index whose price is above cents.
+     */
+    private int upperBound(long cents) {
+        int low = 0;
+        int high = sortedPrices.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedPrices[mid] <= cents) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void setBit(AtomicLongArray bitmap, int id, boolean value) {
+        int index = id >>> 6;
+        long mask = 1L << id;
+        while (true) {
+            long word = bitmap.get(index);
+            long updated = value ? word | mask : word & ~mask;
+            if (word == updated || bitmap.compareAndSet(index, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+}
+
+/**
+ * Compares indexed catalog queries with a linear scan over the products
+ * calling getPrice() and isAvailable(), for narrow and wide price ranges.
+ *
+ * Usage: java com.example.javaguide.ProductCatalogBenchmark [products...]
+ */
+class ProductCatalogBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+            ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+            : new int[] {1_000_000, 10_000_000};
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) {
+        SplittableRandom random = new SplittableRandom(11);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // Prices from $1 to $500, a fifth of the products out of stock, one in ten digital
+            Money price = Money.ofMinor(100 + random.nextInt(49_901), Money.DEFAULT_CURRENCY);
+            int stock = random.nextInt(5) == 0 ? 0 : 1 + random.nextInt(100);
+            products.add(i % 10 == 0
+                ? new DigitalProduct("Product " + i, price, stock, "PDF", 1.5)
+                : new Product("Product " + i, price, stock));
+        }
+        long begin = System.nanoTime();
+        ProductCatalog catalog = new ProductCatalog(products);
+        out.printf("%,d products indexed in %d ms%n", size, (System.nanoTime() - begin) / 1_000_000);
+
+        Money[][] ranges = {
+            {Money.of(10.00), Money.of(10.50)},
+            {Money.of(10.00), Money.of(50.00)},
+            {Money.of(1.00), Money.of(400.00)},
+        };
+        for (int round = 1; round <= 3; round++) {
+            for (Money[] range : ranges) {
+                begin = System.nanoTime();
+                int scanned = 0;
+                for (Product product : products) {
+                    if (product.isAvailable()
+                        && product.getPrice().compareTo(range[0]) >= 0 && product.getPrice().compareTo(range[1]) <= 0) {
+                        scanned++;
+                    }
+                }
+                long scanNanos = System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                int indexed = catalog.countAvailableBetween(range[0], range[1]);
+                long indexNanos = System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                long[] digitalInRange = ProductCatalog.intersect(
+                    ProductCatalog.intersect(catalog.priceBitmap(range[0], range[1]), catalog.availabilityBitmap()),
+                    catalog.digitalBitmap());
+                int digitalCount = ProductCatalog.cardinality(digitalInRange);
+                long bitmapNanos = System.nanoTime() - begin;
+
+                if (scanned != indexed) {
+                    throw new IllegalStateException("Index found " + indexed + " but the scan found " + scanned);
+                }
+                out.printf("Round %d, %s-%s: scan %.2f ms, index %.3f ms (%,d available), " +
+                        "available digital by bitmaps %.2f ms (%,d)%n",
+                    round, range[0], range[1], scanNanos / 1e6, indexNanos / 1e6, indexed,
+                    bitmapNanos / 1e6, digitalCount);
+            }
+        }
+    }
+}
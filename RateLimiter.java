@@ -0,0 +1,311 @@
+package com.example.javaguide;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.System.out;
+
+/**
+ * Decides whether another attempt is allowed for a key, such as a username
+ * or a client address. Implementations are thread-safe and keep state for
+ * about a fixed number of keys; beyond that, the least recently used keys
+ * are forgotten, so attempts for a new key are never refused for lack of room.
+ */
+interface RateLimiter {
+
+    /**
+     * Records an attempt for the key if it is allowed.
+     *
+     * @return false if the key is over its limit
+     */
+    boolean tryAcquire(String key);
+
+    /**
+     * Whether tryAcquire would allow an attempt for the key now, without
+     * recording one. Use it to check several limits before charging any of them.
+     */
+    boolean isAllowed(String key);
+
+    /**
+     * Keys that currently have state.
+     */
+    int trackedKeys();
+}
+
+/**
+ * Shared key table for the limiters: a ConcurrentHashMap (internally
+ * striped) of per-key state, trimmed when it reaches maxKeys. Stale entries,
+ * whose limit has fully recovered, are dropped first; if that frees less
+ * than a tenth of the table, the least recently used entries go too.
+ *
+ * Refusing new keys while the table is full would let anyone lock out every
+ * user not yet tracked by sending made-up keys. Evicting instead means such
+ * a flood can reset a real key's limit, but only after about nine tenths of
+ * the table has been used since that key's last attempt, i.e. each extra
+ * attempt for one key costs an attacker roughly maxKeys requests.
+ */
+abstract class KeyedRateLimiter<S> implements RateLimiter {
+    private final ConcurrentHashMap<String, Tracked<S>> states = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final AtomicInteger trimming = new AtomicInteger();
+
+    private static final class Tracked<S> {
+        final S state;
+        volatile long lastUsed;
+
+        Tracked(S state, long now) {
+            this.state = state;
+            this.lastUsed = now;
+        }
+    }
+
+    KeyedRateLimiter(int maxKeys) {
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys must be positive");
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public boolean tryAcquire(String key) {
+        long now = System.nanoTime();
+        Tracked<S> tracked = states.get(key);
+        if (tracked == null) {
+            makeRoom(now);
+            tracked = states.computeIfAbsent(key, k -> new Tracked<>(newState(now), now));
+        }
+        tracked.lastUsed = now;
+        return tryAcquire(tracked.state, now);
+    }
+
+    @Override
+    public boolean isAllowed(String key) {
+        Tracked<S> tracked = states.get(key);
+        // A new key starts with its full allowance
+        return tracked == null || isAllowed(tracked.state, System.nanoTime());
+    }
+
+    @Override
+    public int trackedKeys() {
+        return states.size();
+    }
+
+    abstract S newState(long now);
+
+    abstract boolean tryAcquire(S state, long now);
+
+    abstract boolean isAllowed(S state, long now);
+
+    /**
+     * True when forgetting the state would not change any future decision.
+     */
+    abstract boolean isStale(S state, long now);
+
+    /**
+     * Trims the table if it is full, leaving room for a tenth of maxKeys new keys.
+     */
+    private void makeRoom(long now) {
+        // One thread trims at a time; the others go ahead and may overshoot slightly
+        if (states.size() < maxKeys || !trimming.compareAndSet(0, 1)) {
+            return;
+        }
+        try {
+            states.values().removeIf(tracked -> isStale(tracked.state, now));
+            int excess = states.size() - (maxKeys - Math.max(1, maxKeys / 10));
+            if (excess > 0) {
+                evictLeastRecentlyUsed(excess);
+            }
+        } finally {
+            trimming.set(0);
+        }
+    }
+
+    private void evictLeastRecentlyUsed(int count) {
+        long[] times = new long[states.size()];
+        int n = 0;
+        for (Tracked<S> tracked : states.values()) {
+            if (n == times.length) {
+                break;
+            }
+            times[n++] = tracked.lastUsed;
+        }
+        if (n == 0) {
+            return;
+        }
+        Arrays.sort(times, 0, n);
+        long cutoff = times[Math.min(count, n) - 1];
+        // Entries used since they were sampled have a later time and stay
+        states.values().removeIf(tracked -> tracked.lastUsed <= cutoff);
+    }
+}
+
+/**
+ * Token bucket: `burst` attempts at once, refilled at one per `interval`.
+ *
+ * Implemented as the generic cell rate algorithm, so the whole bucket is one
+ * long (the time at which it will be full again) updated with a CAS loop.
+ */
+class TokenBucketRateLimiter extends KeyedRateLimiter<AtomicLong> {
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    /**
+     * @param burst    attempts allowed back to back
+     * @param interval time to earn one more attempt
+     */
+    public TokenBucketRateLimiter(int burst, Duration interval, int maxKeys) {
+        super(maxKeys);
+        if (burst < 1 || interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Burst and interval must be positive");
+        }
+        this.intervalNanos = interval.toNanos();
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    @Override
+    AtomicLong newState(long now) {
+        return new AtomicLong(now);
+    }
+
+    @Override
+    boolean tryAcquire(AtomicLong fullAt, long now) {
+        while (true) {
+            long current = fullAt.get();
+            long start = current - now > 0 ? current : now;
+            long next = start + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    boolean isAllowed(AtomicLong fullAt, long now) {
+        long current = fullAt.get();
+        long start = current - now > 0 ? current : now;
+        return start + intervalNanos - now <= burstNanos;
+    }
+
+    @Override
+    boolean isStale(AtomicLong fullAt, long now) {
+        return fullAt.get() - now <= 0;
+    }
+}
+
+/**
+ * Sliding window log: at most `limit` attempts in any `window`.
+ *
+ * Each key keeps the times of its last `limit` accepted attempts in a ring.
+ * An attempt is allowed when the oldest of them is outside the window. The
+ * ring is updated under the key's own monitor, so a slot's time and the ring
+ * position always change together: a thread a whole lap behind can never
+ * read an old time for a slot that another thread has just claimed. Only
+ * attempts for the same key contend.
+ */
+class SlidingLogRateLimiter extends KeyedRateLimiter<SlidingLogRateLimiter.Log> {
+    private final int limit;
+    private final long windowNanos;
+
+    static final class Log {
+        final long[] times;
+        // The oldest entry, which the next accepted attempt replaces
+        int next;
+
+        Log(int limit, long initial) {
+            times = new long[limit];
+            Arrays.fill(times, initial);
+        }
+    }
+
+    public SlidingLogRateLimiter(int limit, Duration window, int maxKeys) {
+        super(maxKeys);
+        if (limit < 1 || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Limit and window must be positive");
+        }
+        this.limit = limit;
+        this.windowNanos = window.toNanos();
+    }
+
+    @Override
+    Log newState(long now) {
+        // Start with every slot already outside the window
+        return new Log(limit, now - windowNanos);
+    }
+
+    @Override
+    boolean tryAcquire(Log log, long now) {
+        synchronized (log) {
+            if (now - log.times[log.next] < windowNanos) {
+                return false;
+            }
+            log.times[log.next] = now;
+            log.next = log.next + 1 == limit ? 0 : log.next + 1;
+            return true;
+        }
+    }
+
+    @Override
+    boolean isAllowed(Log log, long now) {
+        synchronized (log) {
+            return now - log.times[log.next] >= windowNanos;
+        }
+    }
+
+    @Override
+    boolean isStale(Log log, long now) {
+        synchronized (log) {
+            // The newest entry sits just before the next slot to be claimed
+            int newest = log.next == 0 ? limit - 1 : log.next - 1;
+            return now - log.times[newest] >= windowNanos;
+        }
+    }
+}
+
+/**
+ * Measures the cost of one rate limit check and the memory per tracked key
+ * for both limiters.
+ *
+ * Usage: java com.example.javaguide.RateLimiterBenchmark [keys] [checks]
+ */
+class RateLimiterBenchmark {
+
+    public static void main(String[] args) {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int checks = args.length > 1 ? Integer.parseInt(args[1]) : 20_000_000;
+        String[] names = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            names[i] = "user" + i;
+        }
+
+        for (int round = 1; round <= 3; round++) {
+            report("Token bucket", new TokenBucketRateLimiter(10, Duration.ofSeconds(6), keys), names, checks);
+            report("Sliding log ", new SlidingLogRateLimiter(10, Duration.ofMinutes(1), keys), names, checks);
+        }
+    }
+
+    private static void report(String name, RateLimiter limiter, String[] names, int checks) {
+        long before = BenchmarkMemory.usedMemory();
+        for (String key : names) {
+            limiter.tryAcquire(key);
+        }
+        long perKey = (BenchmarkMemory.usedMemory() - before) / names.length;
+
+        long begin = System.nanoTime();
+        int allowed = 0;
+        for (int i = 0; i < checks; i++) {
+            // A few hot keys, as in a credential stuffing burst against popular accounts
+            if (limiter.tryAcquire(names[(i * 31) & 1023])) {
+                allowed++;
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        out.printf("%s: %.1f ns/check, ~%d B/key (%,d keys), %,d of %,d allowed%n",
+            name, (double) nanos / checks, perKey, limiter.trackedKeys(), allowed, checks);
+    }
+}
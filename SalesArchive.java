@@ -0,0 +1,557 @@
+package com.example.javaguide;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import static java.lang.System.out;
+
+/**
+ * Columnar binary archive format for SalesRecord.
+ *
+ * Layout:
+ * <pre>
+ *   header  [int MAGIC][int VERSION]
+ *   block*  [category ids, bit-packed][amount column, bit-packed]
+ *   footer  [int categories][per category: int length, UTF-8 bytes]
+ *           [int blocks][per block: 60 bytes (BLOCK_ENTRY_BYTES) of offset, sizes, statistics, checksums]
+ *   trailer [long footer offset][int MAGIC]
+ * </pre>
+ * Each block holds up to BLOCK_ROWS rows. Categories are stored as ids into
+ * one dictionary for the whole file. Amounts are stored in cents relative to
+ * the block minimum (frame of reference), so a block of prices below $10.24
+ * needs 10 bits per row. Both columns use the fewest bits that fit the
+ * block's largest value, and each column has its own CRC32C.
+ *
+ * The footer records min/max amount and category id per block, so readers
+ * can skip blocks without touching their data. All numbers are little-endian.
+ */
+final class SalesArchive {
+    static final int MAGIC = 0x53414C43; // "SALC"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int TRAILER_BYTES = 12;
+    static final int BLOCK_ROWS = 1 << 16;
+    // Footer entry per block: long offset, ints rows, category bits, amount bits, min and max
+    // category, longs min and max amount, ints category bytes, amount bytes and both CRCs
+    static final int BLOCK_ENTRY_BYTES = 3 * Long.BYTES + 9 * Integer.BYTES;
+
+    private SalesArchive() {
+    }
+
+    static long toCents(double amount) {
+        if (Double.isNaN(amount) || Double.isInfinite(amount)) {
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        }
+        return Math.round(amount * 100);
+    }
+
+    static int bitsFor(long maxValue) {
+        return 64 - Long.numberOfLeadingZeros(maxValue);
+    }
+
+    static int packedBytes(int rows, int bits) {
+        return (int) (((long) rows * bits + 63) >>> 6) * 8;
+    }
+
+    /**
+     * Writes values (all below 2^bits) into consecutive little-endian longs.
+     */
+    static void pack(long[] values, int rows, int bits, ByteBuffer target) {
+        if (bits == 0) {
+            return;
+        }
+        long word = 0;
+        int used = 0;
+        for (int i = 0; i < rows; i++) {
+            long value = values[i];
+            word |= value << used;
+            used += bits;
+            if (used >= 64) {
+                target.putLong(word);
+                used -= 64;
+                // The bits of value that did not fit into the previous word
+                word = used == 0 ? 0 : value >>> (bits - used);
+            }
+        }
+        if (used > 0) {
+            target.putLong(word);
+        }
+    }
+
+    /**
+     * Reverse of pack(): reads `rows` values of `bits` bits from source, starting at its position.
+     */
+    static void unpack(ByteBuffer source, int rows, int bits, long[] values) {
+        if (bits == 0) {
+            Arrays.fill(values, 0, rows, 0);
+            return;
+        }
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        int base = source.position();
+        long word = 0;
+        int available = 0;
+        int nextWord = 0;
+        for (int i = 0; i < rows; i++) {
+            if (available >= bits) {
+                values[i] = word & mask;
+                word = bits == 64 ? 0 : word >>> bits;
+                available -= bits;
+            } else {
+                long next = source.getLong(base + 8 * nextWord++);
+                long value = available == 0 ? next : word | (next << available);
+                values[i] = value & mask;
+                int fromNext = bits - available;
+                word = fromNext == 64 ? 0 : next >>> fromNext;
+                available = 64 - fromNext;
+            }
+        }
+    }
+
+    static int checksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
+
+/**
+ * Appends SalesRecords to a new archive file; close() writes the footer.
+ * Not thread-safe.
+ */
+class SalesArchiveWriter implements Closeable {
+    private final FileChannel channel;
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categories = new ArrayList<>();
+    private final long[] categoryColumn = new long[SalesArchive.BLOCK_ROWS];
+    private final long[] amountColumn = new long[SalesArchive.BLOCK_ROWS];
+    private ByteBuffer blockBuffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer entries = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+    private int rows;
+    private int blocks;
+    private long position;
+    private boolean closed;
+
+    private SalesArchiveWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static SalesArchiveWriter create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        SalesArchiveWriter writer = new SalesArchiveWriter(channel);
+        ByteBuffer header = ByteBuffer.allocate(SalesArchive.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SalesArchive.MAGIC).putInt(SalesArchive.VERSION).flip();
+        writer.write(header);
+        return writer;
+    }
+
+    public void add(SalesRecord sale) throws IOException {
+        add(sale.category(), sale.amount());
+    }
+
+    public void add(String category, double amount) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Archive writer is closed");
+        }
+        Integer id = categoryIds.get(category);
+        if (id == null) {
+            id = categories.size();
+            categoryIds.put(category, id);
+            categories.add(category);
+        }
+        categoryColumn[rows] = id;
+        amountColumn[rows] = SalesArchive.toCents(amount);
+        if (++rows == SalesArchive.BLOCK_ROWS) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (rows > 0) {
+                flushBlock();
+            }
+            long footerOffset = position;
+            int dictionaryBytes = 4;
+            List<byte[]> names = new ArrayList<>(categories.size());
+            for (String category : categories) {
+                byte[] name = category.getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                dictionaryBytes += 4 + name.length;
+            }
+            ByteBuffer footer = ByteBuffer.allocate(dictionaryBytes + 4 + entries.position() + SalesArchive.TRAILER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            footer.putInt(names.size());
+            for (byte[] name : names) {
+                footer.putInt(name.length).put(name);
+            }
+            footer.putInt(blocks);
+            footer.put(entries.flip());
+            footer.putLong(footerOffset).putInt(SalesArchive.MAGIC);
+            write(footer.flip());
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        long minCents = Long.MAX_VALUE;
+        long maxCents = Long.MIN_VALUE;
+        int minCategory = Integer.MAX_VALUE;
+        int maxCategory = 0;
+        for (int i = 0; i < rows; i++) {
+            minCents = Math.min(minCents, amountColumn[i]);
+            maxCents = Math.max(maxCents, amountColumn[i]);
+            minCategory = Math.min(minCategory, (int) categoryColumn[i]);
+            maxCategory = Math.max(maxCategory, (int) categoryColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            amountColumn[i] -= minCents;
+        }
+        int categoryBits = SalesArchive.bitsFor(maxCategory);
+        // Unsigned difference, so even a block spanning the whole long range fits in 64 bits
+        int amountBits = SalesArchive.bitsFor(maxCents - minCents);
+        int categoryBytes = SalesArchive.packedBytes(rows, categoryBits);
+        int amountBytes = SalesArchive.packedBytes(rows, amountBits);
+        if (blockBuffer.capacity() < categoryBytes + amountBytes) {
+            blockBuffer = ByteBuffer.allocateDirect(categoryBytes + amountBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer block = blockBuffer.clear();
+        SalesArchive.pack(categoryColumn, rows, categoryBits, block);
+        SalesArchive.pack(amountColumn, rows, amountBits, block);
+        block.flip();
+        int categoryCrc = SalesArchive.checksum(block.slice(0, categoryBytes));
+        int amountCrc = SalesArchive.checksum(block.slice(categoryBytes, amountBytes));
+
+        if (entries.remaining() < SalesArchive.BLOCK_ENTRY_BYTES) {
+            entries = ByteBuffer.allocate(entries.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN).put(entries.flip());
+        }
+        entries.putLong(position)
+            .putInt(rows)
+            .putInt(categoryBits)
+            .putInt(amountBits)
+            .putInt(minCategory)
+            .putInt(maxCategory)
+            .putLong(minCents)
+            .putLong(maxCents)
+            .putInt(categoryBytes)
+            .putInt(amountBytes)
+            .putInt(categoryCrc)
+            .putInt(amountCrc);
+        write(block);
+        blocks++;
+        rows = 0;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
+
+/**
+ * Reads an archive written by SalesArchiveWriter. Only the footer is read on
+ * open; block columns are memory-mapped when a scan needs them, and a scan
+ * filtered by amount never maps blocks whose min/max rule them out. Checksums
+ * are verified for every column that is read.
+ *
+ * Readers are immutable after open and can be shared between threads.
+ */
+class SalesArchiveReader implements Closeable {
+    private final FileChannel channel;
+    private final String[] categories;
+    private final Block[] blocks;
+    private final long rowCount;
+
+    /**
+     * Location and statistics of one block, from the footer.
+     */
+    record Block(long offset, int rows, int categoryBits, int amountBits,
+                 int minCategory, int maxCategory, long minCents, long maxCents,
+                 int categoryBytes, int amountBytes, int categoryCrc, int amountCrc) {
+
+        boolean overlaps(long fromCents, long toCents) {
+            return maxCents >= fromCents && minCents <= toCents;
+        }
+    }
+
+    /**
+     * Receives the decoded rows of one block. Arrays are reused between blocks.
+     */
+    interface BlockVisitor {
+        void visit(int rows, long[] categoryIds, long[] amountCents);
+    }
+
+    private SalesArchiveReader(FileChannel channel, String[] categories, Block[] blocks) {
+        this.channel = channel;
+        this.categories = categories;
+        this.blocks = blocks;
+        long total = 0;
+        for (Block block : blocks) {
+            total += block.rows();
+        }
+        this.rowCount = total;
+    }
+
+    public static SalesArchiveReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < SalesArchive.HEADER_BYTES + SalesArchive.TRAILER_BYTES) {
+                throw new IOException("Not a sales archive: " + file);
+            }
+            ByteBuffer trailer = read(channel, size - SalesArchive.TRAILER_BYTES, SalesArchive.TRAILER_BYTES);
+            long footerOffset = trailer.getLong();
+            ByteBuffer header = read(channel, 0, SalesArchive.HEADER_BYTES);
+            if (trailer.getInt() != SalesArchive.MAGIC || header.getInt() != SalesArchive.MAGIC) {
+                throw new IOException("Not a sales archive: " + file);
+            }
+            if (header.getInt() != SalesArchive.VERSION) {
+                throw new IOException("Unsupported sales archive version in " + file);
+            }
+            if (footerOffset < SalesArchive.HEADER_BYTES || footerOffset > size - SalesArchive.TRAILER_BYTES) {
+                throw new IOException("Corrupt sales archive footer in " + file);
+            }
+            ByteBuffer footer = read(channel, footerOffset, (int) (size - SalesArchive.TRAILER_BYTES - footerOffset));
+            String[] categories = new String[footer.getInt()];
+            for (int i = 0; i < categories.length; i++) {
+                byte[] name = new byte[footer.getInt()];
+                footer.get(name);
+                categories[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            Block[] blocks = new Block[footer.getInt()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new Block(footer.getLong(), footer.getInt(), footer.getInt(), footer.getInt(),
+                    footer.getInt(), footer.getInt(), footer.getLong(), footer.getLong(),
+                    footer.getInt(), footer.getInt(), footer.getInt(), footer.getInt());
+            }
+            return new SalesArchiveReader(channel, categories, blocks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    public int blockCount() {
+        return blocks.length;
+    }
+
+    public List<String> categories() {
+        return List.of(categories);
+    }
+
+    /**
+     * Number of blocks a scan for amounts in [minAmount, maxAmount] has to read.
+     */
+    public int blocksOverlapping(double minAmount, double maxAmount) {
+        long from = SalesArchive.toCents(minAmount);
+        long to = SalesArchive.toCents(maxAmount);
+        int count = 0;
+        for (Block block : blocks) {
+            if (block.overlaps(from, to)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Total of all amounts in [minAmount, maxAmount]. Reads only the amount column.
+     */
+    public double sumAmounts(double minAmount, double maxAmount) throws IOException {
+        long from = SalesArchive.toCents(minAmount);
+        long to = SalesArchive.toCents(maxAmount);
+        long[] sum = new long[1];
+        scan(from, to, false, (rows, categoryIds, amounts) -> {
+            for (int i = 0; i < rows; i++) {
+                long cents = amounts[i];
+                if (cents >= from && cents <= to) {
+                    sum[0] += cents;
+                }
+            }
+        });
+        return sum[0] / 100.0;
+    }
+
+    public Map<String, SalesTable.CategoryStats> statsByCategory() throws IOException {
+        return statsByCategory(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Count, sum, min and max per category for amounts in [minAmount, maxAmount].
+     */
+    public Map<String, SalesTable.CategoryStats> statsByCategory(double minAmount, double maxAmount) throws IOException {
+        return statsByCategory(SalesArchive.toCents(minAmount), SalesArchive.toCents(maxAmount));
+    }
+
+    private Map<String, SalesTable.CategoryStats> statsByCategory(long from, long to) throws IOException {
+        SalesTable.GroupTotals totals = new SalesTable.GroupTotals(categories.length);
+        scan(from, to, true, (rows, categoryIds, amounts) -> {
+            for (int i = 0; i < rows; i++) {
+                long cents = amounts[i];
+                if (cents >= from && cents <= to) {
+                    totals.add((int) categoryIds[i], cents / 100.0);
+                }
+            }
+        });
+        Map<String, SalesTable.CategoryStats> result = new LinkedHashMap<>();
+        for (int id = 0; id < categories.length; id++) {
+            if (totals.count[id] > 0) {
+                result.put(categories[id], totals.stats(id));
+            }
+        }
+        return result;
+    }
+
+    public void forEach(Consumer<SalesRecord> action) throws IOException {
+        scan(Long.MIN_VALUE, Long.MAX_VALUE, true, (rows, categoryIds, amounts) -> {
+            for (int i = 0; i < rows; i++) {
+                action.accept(new SalesRecord(categories[(int) categoryIds[i]], amounts[i] / 100.0));
+            }
+        });
+    }
+
+    /**
+     * Decodes every block whose amount range overlaps [fromCents, toCents].
+     * Amounts are passed as absolute cents. With withCategories false the
+     * category column is neither mapped nor decoded.
+     */
+    void scan(long fromCents, long toCents, boolean withCategories, BlockVisitor visitor) throws IOException {
+        long[] categoryIds = withCategories ? new long[SalesArchive.BLOCK_ROWS] : null;
+        long[] amounts = new long[SalesArchive.BLOCK_ROWS];
+        for (int b = 0; b < blocks.length; b++) {
+            Block block = blocks[b];
+            if (!block.overlaps(fromCents, toCents)) {
+                continue;
+            }
+            if (withCategories) {
+                MappedByteBuffer column = map(block.offset(), block.categoryBytes());
+                verify(column, block.categoryCrc(), b, "category");
+                SalesArchive.unpack(column, block.rows(), block.categoryBits(), categoryIds);
+            }
+            MappedByteBuffer column = map(block.offset() + block.categoryBytes(), block.amountBytes());
+            verify(column, block.amountCrc(), b, "amount");
+            SalesArchive.unpack(column, block.rows(), block.amountBits(), amounts);
+            long base = block.minCents();
+            for (int i = 0; i < block.rows(); i++) {
+                amounts[i] += base;
+            }
+            visitor.visit(block.rows(), categoryIds, amounts);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer map(long offset, int length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void verify(ByteBuffer column, int expected, int block, String name) throws IOException {
+        if (SalesArchive.checksum(column.duplicate()) != expected) {
+            throw new IOException("Checksum mismatch in " + name + " column of block " + block);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of sales archive");
+            }
+        }
+        return buffer.flip();
+    }
+}
+
+/**
+ * Writes the same sales as CSV and as an archive, then compares file size and
+ * the time to scan each for a category summary and a filtered amount total.
+ *
+ * Usage: java com.example.javaguide.SalesArchiveBenchmark [rows]
+ */
+class SalesArchiveBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        String[] categoryNames = {"Electronics", "Books", "Clothing", "Food", "Toys", "Garden", "Sports", "Beauty"};
+        Path csv = Files.createTempFile("sales", ".csv");
+        Path archive = Files.createTempFile("sales", ".salc");
+
+        // Sales arrive roughly sorted by price band, as exports per price list do
+        SplittableRandom random = new SplittableRandom(17);
+        try (SalesArchiveWriter writer = SalesArchiveWriter.create(archive);
+             var text = Files.newBufferedWriter(csv)) {
+            text.write("category,amount\n");
+            for (int i = 0; i < rows; i++) {
+                String category = categoryNames[random.nextInt(categoryNames.length)];
+                long band = (long) i * 100 / rows;
+                double amount = (band * 1_000 + random.nextInt(1_000)) / 100.0;
+                writer.add(category, amount);
+                text.write(category + "," + amount + "\n");
+            }
+        }
+        out.printf("CSV %,d KB, archive %,d KB%n", Files.size(csv) / 1024, Files.size(archive) / 1024);
+
+        try (SalesArchiveReader reader = SalesArchiveReader.open(archive)) {
+            for (int round = 1; round <= 3; round++) {
+                long begin = System.nanoTime();
+                Map<String, SalesTable.CategoryStats> fromCsv = new SalesCsvReader(csv).aggregate();
+                long csvNanos = System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                Map<String, SalesTable.CategoryStats> fromArchive = reader.statsByCategory();
+                long archiveNanos = System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                double filtered = reader.sumAmounts(500, 510);
+                long filteredNanos = System.nanoTime() - begin;
+
+                fromCsv.forEach((category, stats) -> {
+                    SalesTable.CategoryStats other = fromArchive.get(category);
+                    if (other.count() != stats.count() || Math.abs(other.sum() - stats.sum()) > 0.01) {
+                        throw new IllegalStateException(category + ": " + stats + " vs " + other);
+                    }
+                });
+                out.printf("Round %d: CSV scan %.0f ms, archive scan %.0f ms, " +
+                        "filtered sum %.2f in %.1f ms reading %d of %d blocks%n",
+                    round, csvNanos / 1e6, archiveNanos / 1e6, filtered, filteredNanos / 1e6,
+                    reader.blocksOverlapping(500, 510), reader.blockCount());
+            }
+        }
+        Files.delete(csv);
+        Files.delete(archive);
+    }
+}
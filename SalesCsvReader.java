@@ -0,0 +1,590 @@
+package com.example.javaguide;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+import static java.lang.System.out;
+
+/**
+ * Streaming reader for "category,amount" sales exports.
+ *
+ * The file is memory-mapped in line-aligned chunks that are parsed in
+ * parallel, a few at a time, so memory stays bounded whatever the file size.
+ * Categories are looked up in a per-chunk byte dictionary, so a category
+ * becomes a String only the first time a chunk sees it, and amounts are
+ * parsed straight from the bytes. An optional header line is skipped, as
+ * are blank lines; a category may be quoted ("Books, used"). The first line
+ * counts as a header only when its amount field is text without digits,
+ * such as "amount"; any other unparseable amount is reported as malformed.
+ */
+class SalesCsvReader {
+    static final int DEFAULT_CHUNK_BYTES = 32 << 20;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Path file;
+    private final int chunkBytes;
+    private final int parallelism;
+
+    public SalesCsvReader(Path file) {
+        this(file, DEFAULT_CHUNK_BYTES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param chunkBytes  approximate size of one parsed chunk
+     * @param parallelism how many chunks are parsed at the same time
+     */
+    public SalesCsvReader(Path file, int chunkBytes, int parallelism) {
+        if (chunkBytes < 1024 || parallelism < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1 KB and parallelism at least 1");
+        }
+        this.file = file;
+        this.chunkBytes = chunkBytes;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Receives the rows of one chunk; category ids are local to that chunk.
+     */
+    interface ChunkHandler<T> {
+        T newChunk();
+
+        void row(T chunk, int localCategoryId, double amount);
+
+        void endChunk(T chunk, ByteDictionary categories);
+    }
+
+    /**
+     * Aggregates the file without keeping any rows: memory is bounded by the
+     * number of distinct categories.
+     */
+    public Map<String, SalesTable.CategoryStats> aggregate() throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        SalesTable.GroupTotals totals = new SalesTable.GroupTotals(16);
+        read(new ChunkHandler<SalesTable.GroupTotals>() {
+            @Override
+            public SalesTable.GroupTotals newChunk() {
+                return new SalesTable.GroupTotals(16);
+            }
+
+            @Override
+            public void row(SalesTable.GroupTotals chunk, int localCategoryId, double amount) {
+                chunk.ensureGroups(localCategoryId + 1);
+                chunk.add(localCategoryId, amount);
+            }
+
+            @Override
+            public void endChunk(SalesTable.GroupTotals chunk, ByteDictionary categories) {
+                synchronized (totals) {
+                    for (int local = 0; local < categories.size(); local++) {
+                        String name = categories.name(local);
+                        Integer id = ids.get(name);
+                        if (id == null) {
+                            id = names.size();
+                            ids.put(name, id);
+                            names.add(name);
+                            totals.ensureGroups(id + 1);
+                        }
+                        if (local < chunk.groups()) {
+                            totals.mergeGroup(id, chunk, local);
+                        }
+                    }
+                }
+            }
+        });
+        Map<String, SalesTable.CategoryStats> result = new LinkedHashMap<>();
+        for (int id = 0; id < names.size(); id++) {
+            if (totals.count[id] > 0) {
+                result.put(names.get(id), totals.stats(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Totals per category, the same shape as the groupingBy version in ModernJava.
+     */
+    public Map<String, Double> sumByCategory() throws IOException {
+        Map<String, Double> result = new HashMap<>();
+        aggregate().forEach((category, stats) -> result.put(category, stats.sum()));
+        return result;
+    }
+
+    /**
+     * Appends every row to the table in file order.
+     */
+    public void loadInto(SalesTable table) throws IOException {
+        forEachChunkInOrder(chunk -> {
+            int[] mapping = new int[chunk.categories.size()];
+            for (int local = 0; local < mapping.length; local++) {
+                mapping[local] = table.categoryId(chunk.categories.name(local));
+            }
+            for (int row = 0; row < chunk.rows; row++) {
+                table.add(mapping[chunk.categoryIds[row]], chunk.amounts[row]);
+            }
+        });
+    }
+
+    /**
+     * Passes every row as a SalesRecord, in file order. Category strings are
+     * shared between records, so only the record itself is allocated.
+     */
+    public void forEachRecord(Consumer<SalesRecord> action) throws IOException {
+        forEachChunkInOrder(chunk -> {
+            for (int row = 0; row < chunk.rows; row++) {
+                action.accept(new SalesRecord(chunk.categories.name(chunk.categoryIds[row]), chunk.amounts[row]));
+            }
+        });
+    }
+
+    /**
+     * Parses chunks in parallel in groups of `parallelism`, handing each
+     * group's rows to the action in file order before the next group starts.
+     */
+    private void forEachChunkInOrder(Consumer<ParsedChunk> action) throws IOException {
+        List<long[]> ranges = chunkRanges();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int first = 0; first < ranges.size(); first += parallelism) {
+                List<long[]> group = ranges.subList(first, Math.min(ranges.size(), first + parallelism));
+                List<ParsedChunk> parsed = group.parallelStream()
+                    .map(range -> {
+                        ParsedChunk chunk = new ParsedChunk();
+                        parseChunk(channel, range, chunk, COLLECT_ROWS, chunk.categories);
+                        return chunk;
+                    })
+                    .toList();
+                parsed.forEach(action);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parses all chunks, `parallelism` at a time, calling the handler from the
+     * parsing threads. endChunk calls may run concurrently.
+     */
+    <T> void read(ChunkHandler<T> handler) throws IOException {
+        List<long[]> ranges = chunkRanges();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int first = 0; first < ranges.size(); first += parallelism) {
+                ranges.subList(first, Math.min(ranges.size(), first + parallelism))
+                    .parallelStream()
+                    .forEach(range -> {
+                        T chunk = handler.newChunk();
+                        ByteDictionary categories = new ByteDictionary();
+                        parseChunk(channel, range, chunk, handler, categories);
+                        handler.endChunk(chunk, categories);
+                    });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Splits the file into ranges of about chunkBytes that each end right after a newline.
+     */
+    private List<long[]> chunkRanges() throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            ByteBuffer probe = ByteBuffer.allocate(4096);
+            while (start < size) {
+                long end = Math.min(size, start + chunkBytes);
+                // Move the end forward to just past the next newline
+                while (end < size) {
+                    probe.clear();
+                    int read = channel.read(probe, end);
+                    if (read <= 0) {
+                        end = size;
+                        break;
+                    }
+                    int newline = -1;
+                    for (int i = 0; i < read; i++) {
+                        if (probe.get(i) == '\n') {
+                            newline = i;
+                            break;
+                        }
+                    }
+                    if (newline >= 0) {
+                        end += newline + 1;
+                        break;
+                    }
+                    end += read;
+                }
+                ranges.add(new long[] {start, Math.min(end, size)});
+                start = Math.min(end, size);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Parses the rows of one range, adding each category to the given dictionary.
+     */
+    private <T> void parseChunk(FileChannel channel, long[] range, T chunk, ChunkHandler<T> handler,
+            ByteDictionary categories) {
+        MappedByteBuffer data;
+        try {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] scratch = new byte[64];
+        int limit = data.limit();
+        int position = 0;
+        boolean firstLineOfFile = range[0] == 0;
+        while (position < limit) {
+            int lineStart = position;
+            int lineEnd = position;
+            while (lineEnd < limit && data.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            position = lineEnd + 1;
+            int end = lineEnd > lineStart && data.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (end == lineStart) {
+                continue;
+            }
+
+            // Category: either quoted (with "" as an escaped quote) or up to the first comma
+            int length = 0;
+            int cursor = lineStart;
+            if (data.get(cursor) == '"') {
+                cursor++;
+                while (true) {
+                    if (cursor >= end) {
+                        throw malformed(range[0] + lineStart, "unterminated quote");
+                    }
+                    byte b = data.get(cursor++);
+                    if (b == '"') {
+                        if (cursor < end && data.get(cursor) == '"') {
+                            cursor++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (length == scratch.length) {
+                        scratch = Arrays.copyOf(scratch, length * 2);
+                    }
+                    scratch[length++] = b;
+                }
+                if (cursor >= end || data.get(cursor) != ',') {
+                    throw malformed(range[0] + lineStart, "expected ',' after quoted category");
+                }
+            } else {
+                while (cursor < end && data.get(cursor) != ',') {
+                    if (length == scratch.length) {
+                        scratch = Arrays.copyOf(scratch, length * 2);
+                    }
+                    scratch[length++] = data.get(cursor++);
+                }
+                if (cursor >= end) {
+                    throw malformed(range[0] + lineStart, "missing amount");
+                }
+            }
+
+            double amount = parseAmount(data, cursor + 1, end);
+            if (Double.isNaN(amount)) {
+                if (firstLineOfFile && isHeaderText(data, cursor + 1, end)) {
+                    // Header line such as "category,amount"
+                    firstLineOfFile = false;
+                    continue;
+                }
+                throw malformed(range[0] + lineStart, "invalid amount");
+            }
+            firstLineOfFile = false;
+            handler.row(chunk, categories.idOf(scratch, length), amount);
+        }
+    }
+
+    /**
+     * True for a column name: some letters and no digits, so a first data row
+     * with a mistyped amount such as "12,50" or "1O0" is not mistaken for a header.
+     */
+    private static boolean isHeaderText(ByteBuffer data, int from, int to) {
+        boolean letters = false;
+        for (int i = from; i < to; i++) {
+            byte b = data.get(i);
+            if (b >= '0' && b <= '9') {
+                return false;
+            }
+            letters |= (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+        }
+        return letters;
+    }
+
+    /**
+     * Parses a plain decimal such as 129.50 or -3 without creating a String.
+     * Up to 15 significant digits the result equals Double.parseDouble, because
+     * both mantissa and power of ten are exact doubles. Anything else (exponents,
+     * long numbers) falls back to Double.parseDouble.
+     *
+     * @return the amount, or NaN if the text is not a number
+     */
+    static double parseAmount(ByteBuffer data, int from, int to) {
+        while (from < to && data.get(from) == ' ') {
+            from++;
+        }
+        while (to > from && data.get(to - 1) == ' ') {
+            to--;
+        }
+        if (from == to) {
+            return Double.NaN;
+        }
+        int cursor = from;
+        boolean negative = false;
+        byte first = data.get(cursor);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            cursor++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenDot = false;
+        for (; cursor < to; cursor++) {
+            byte b = data.get(cursor);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenDot) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return slowParse(data, from, to);
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (digits > 15) {
+            return slowParse(data, from, to);
+        }
+        double value = fractionDigits == 0 ? mantissa : mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(ByteBuffer data, int from, int to) {
+        byte[] text = new byte[to - from];
+        data.get(from, text);
+        try {
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static IllegalArgumentException malformed(long offset, String reason) {
+        return new IllegalArgumentException("Malformed sales line at byte " + offset + ": " + reason);
+    }
+
+    /**
+     * Rows of one chunk kept as primitive columns, for ordered consumers.
+     */
+    private static final class ParsedChunk {
+        final ByteDictionary categories = new ByteDictionary();
+        int[] categoryIds = new int[1024];
+        double[] amounts = new double[1024];
+        int rows;
+    }
+
+    private static final ChunkHandler<ParsedChunk> COLLECT_ROWS = new ChunkHandler<>() {
+        @Override
+        public ParsedChunk newChunk() {
+            return new ParsedChunk();
+        }
+
+        @Override
+        public void row(ParsedChunk chunk, int localCategoryId, double amount) {
+            if (chunk.rows == chunk.amounts.length) {
+                chunk.categoryIds = Arrays.copyOf(chunk.categoryIds, chunk.rows * 2);
+                chunk.amounts = Arrays.copyOf(chunk.amounts, chunk.rows * 2);
+            }
+            chunk.categoryIds[chunk.rows] = localCategoryId;
+            chunk.amounts[chunk.rows] = amount;
+            chunk.rows++;
+        }
+
+        @Override
+        public void endChunk(ParsedChunk chunk, ByteDictionary categories) {
+        }
+    };
+}
+
+/**
+ * Open-addressing map from category bytes to small int ids. Keys are copied
+ * into one byte pool; a String is created once per new category.
+ */
+final class ByteDictionary {
+    private byte[] pool = new byte[1024];
+    private int poolSize;
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int[] hashes = new int[16];
+    private String[] names = new String[16];
+    private int size;
+    // Slot holds id + 1, or 0 when empty
+    private int[] slots = new int[32];
+
+    int size() {
+        return size;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int idOf(byte[] key, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + key[i];
+        }
+        hash ^= hash >>> 16;
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                int id = insert(key, length, hash);
+                slots[slot] = id + 1;
+                if (size * 2 > slots.length) {
+                    rehash();
+                }
+                return id;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && lengths[id] == length
+                    && Arrays.equals(pool, offsets[id], offsets[id] + length, key, 0, length)) {
+                return id;
+            }
+        }
+    }
+
+    private int insert(byte[] key, int length, int hash) {
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        System.arraycopy(key, 0, pool, poolSize, length);
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+        }
+        offsets[size] = poolSize;
+        lengths[size] = length;
+        hashes[size] = hash;
+        names[size] = new String(key, 0, length, StandardCharsets.UTF_8);
+        poolSize += length;
+        return size++;
+    }
+
+    private void rehash() {
+        int[] resized = new int[slots.length * 2];
+        int mask = resized.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (resized[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            resized[slot] = id + 1;
+        }
+        slots = resized;
+    }
+}
+
+/**
+ * Generates a sales CSV and compares SalesCsvReader with a BufferedReader
+ * and String.split based loader, checking that both give the same row count
+ * and total for every category.
+ *
+ * Usage: java com.example.javaguide.SalesCsvBenchmark [rows] [file]
+ */
+class SalesCsvBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        Path file = args.length > 1 ? Path.of(args[1]) : Files.createTempFile("sales", ".csv");
+        if (args.length < 2 || Files.notExists(file) || Files.size(file) == 0) {
+            writeSample(file, rows);
+        }
+        double megabytes = Files.size(file) / 1e6;
+
+        for (int round = 1; round <= 3; round++) {
+            long begin = System.nanoTime();
+            Map<String, SalesTable.CategoryStats> mapped = new SalesCsvReader(file).aggregate();
+            long mappedNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            Map<String, Double> simple = new HashMap<>();
+            Map<String, Long> simpleCounts = new HashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    simple.merge(fields[0], Double.parseDouble(fields[1]), Double::sum);
+                    simpleCounts.merge(fields[0], 1L, Long::sum);
+                }
+            }
+            long simpleNanos = System.nanoTime() - begin;
+
+            if (!mapped.keySet().equals(simple.keySet())) {
+                throw new IllegalStateException("Different categories");
+            }
+            mapped.forEach((category, stats) -> {
+                double expected = simple.get(category);
+                // The reader sums with compensation and per chunk, so allow for rounding in the plain sum
+                if (stats.count() != simpleCounts.get(category)
+                        || Math.abs(stats.sum() - expected) > 1e-9 * Math.abs(expected)) {
+                    throw new IllegalStateException("Different totals for " + category + ": "
+                        + stats.count() + " rows, " + stats.sum() + " against "
+                        + simpleCounts.get(category) + " rows, " + expected);
+                }
+            });
+            out.printf("Round %d: mapped %.0f MB/s, BufferedReader %.0f MB/s (%d categories)%n",
+                round, megabytes * 1e9 / mappedNanos, megabytes * 1e9 / simpleNanos, mapped.size());
+        }
+    }
+
+    private static void writeSample(Path file, int rows) throws IOException {
+        String[] categories = {"Electronics", "Books", "Clothing", "Food", "Toys", "Garden", "Sports", "Beauty"};
+        SplittableRandom random = new SplittableRandom(11);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("category,amount\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(categories[random.nextInt(categories.length)]);
+                writer.write(',');
+                int cents = random.nextInt(200_000);
+                writer.write(Integer.toString(cents / 100));
+                writer.write('.');
+                writer.write(cents % 100 < 10 ? "0" + cents % 100 : Integer.toString(cents % 100));
+                writer.write('\n');
+            }
+        }
+    }
+}
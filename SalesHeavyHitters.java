@@ -0,0 +1,334 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+import static java.lang.System.out;
+
+/**
+ * Streaming "top N categories by amount" in fixed memory.
+ *
+ * A Count-Min sketch estimates the total amount of any category: every
+ * category adds its amount to one counter in each of `depth` rows, and the
+ * estimate is the smallest of those counters. It never underestimates and,
+ * with probability 1 - delta, overestimates by at most epsilon times the
+ * total amount seen. Next to it a min-heap keeps the `capacity` categories
+ * with the largest estimates; when a category outgrows the smallest one it
+ * takes its place.
+ *
+ * The heap is not a space-saving (Metwally) counter set: it holds no counts
+ * of its own, only the sketch's estimates. A category that replaces the
+ * smallest candidate therefore starts from its sketch estimate rather than
+ * inheriting the evicted count, so every reported amount keeps the sketch's
+ * epsilon bound instead of space-saving's total / capacity.
+ *
+ * Memory is width x depth counters plus the candidate heap, however many
+ * distinct categories the stream contains. Instances are not thread-safe,
+ * but two sketches with the same settings can be merged, so each thread can
+ * fill its own and combine them at the end (see collector()).
+ *
+ * Amounts are counted in whole cents and must not be negative.
+ */
+class SalesHeavyHitters {
+    private static final long ROW_SEED = 0x9E3779B97F4A7C15L;
+
+    private final int capacity;
+    private final double epsilon;
+    private final double delta;
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long totalCents;
+
+    // Candidate min-heap by estimated cents, with each category's heap position
+    private final String[] heapCategories;
+    private final long[] heapCents;
+    private final Map<String, Integer> heapPositions;
+    private int heapSize;
+
+    /**
+     * One of the largest categories, with an estimate that is never too low.
+     */
+    record HeavyHitter(String category, double estimatedAmount, double maxOverestimate) {}
+
+    /**
+     * @param capacity number of candidate categories kept; topN() can return up to this many
+     * @param epsilon  relative error bound, as a fraction of the total amount
+     * @param delta    probability that an estimate exceeds that bound
+     */
+    public SalesHeavyHitters(int capacity, double epsilon, double delta) {
+        if (capacity < 1 || !(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("Capacity must be positive and epsilon and delta between 0 and 1");
+        }
+        this.capacity = capacity;
+        this.epsilon = epsilon;
+        this.delta = delta;
+        // Width e / epsilon rounded up to a power of two, so a mask selects the column
+        this.width = Math.max(16, Integer.highestOneBit((int) Math.ceil(Math.E / epsilon) - 1) << 1);
+        this.depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+        if ((long) width * depth > 1 << 28) {
+            throw new IllegalArgumentException("Epsilon " + epsilon + " needs too many counters");
+        }
+        this.counters = new long[width * depth];
+        this.heapCategories = new String[capacity];
+        this.heapCents = new long[capacity];
+        this.heapPositions = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Collects a (possibly parallel) stream into one sketch, merging the per-thread sketches.
+     */
+    public static Collector<SalesRecord, ?, SalesHeavyHitters> collector(int capacity, double epsilon, double delta) {
+        return Collector.of(
+            () -> new SalesHeavyHitters(capacity, epsilon, delta),
+            SalesHeavyHitters::add,
+            SalesHeavyHitters::merge,
+            Collector.Characteristics.UNORDERED
+        );
+    }
+
+    public void add(SalesRecord sale) {
+        add(sale.category(), sale.amount());
+    }
+
+    public void add(String category, double amount) {
+        long cents = Math.round(amount * 100);
+        if (cents < 0) {
+            throw new IllegalArgumentException("Negative amount for " + category + ": " + amount);
+        }
+        totalCents = Math.addExact(totalCents, cents);
+        long hash = StringHash.hash64(category);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = row * width + column(hash, row);
+            counters[index] += cents;
+            estimate = Math.min(estimate, counters[index]);
+        }
+        offer(category, estimate);
+    }
+
+    /**
+     * Estimated total amount of a category; at least the true total.
+     */
+    public double estimate(String category) {
+        return estimateCents(category, StringHash.hash64(category)) / 100.0;
+    }
+
+    /**
+     * The n categories with the largest estimated totals, largest first.
+     */
+    public List<HeavyHitter> topN(int n) {
+        if (n < 0 || n > capacity) {
+            throw new IllegalArgumentException("n must be between 0 and " + capacity);
+        }
+        Integer[] order = new Integer[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> heapCents[i]).reversed());
+        List<HeavyHitter> result = new ArrayList<>(Math.min(n, heapSize));
+        double bound = errorBound();
+        for (int i = 0; i < Math.min(n, heapSize); i++) {
+            result.add(new HeavyHitter(heapCategories[order[i]], heapCents[order[i]] / 100.0, bound));
+        }
+        return result;
+    }
+
+    /**
+     * Adds the other sketch's counts to this one. Both must have been created
+     * with the same capacity, epsilon and delta.
+     *
+     * @return this sketch
+     */
+    public SalesHeavyHitters merge(SalesHeavyHitters other) {
+        if (other.width != width || other.depth != depth || other.capacity != capacity) {
+            throw new IllegalArgumentException("Cannot merge sketches with different settings");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        totalCents = Math.addExact(totalCents, other.totalCents);
+
+        // Re-estimate every candidate of both sides against the merged counters
+        String[] candidates = Arrays.copyOf(heapCategories, heapSize + other.heapSize);
+        System.arraycopy(other.heapCategories, 0, candidates, heapSize, other.heapSize);
+        heapPositions.clear();
+        heapSize = 0;
+        for (String category : candidates) {
+            if (!heapPositions.containsKey(category)) {
+                offer(category, estimateCents(category, StringHash.hash64(category)));
+            }
+        }
+        return this;
+    }
+
+    public double totalAmount() {
+        return totalCents / 100.0;
+    }
+
+    /**
+     * Largest expected overestimate of any single category: epsilon times the total.
+     */
+    public double errorBound() {
+        return Math.ceil(epsilon * totalCents) / 100.0;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    /**
+     * Approximate memory used by the counters and candidate arrays, in bytes.
+     */
+    public long footprintBytes() {
+        return counters.length * 8L + capacity * 16L;
+    }
+
+    private long estimateCents(String category, long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    private void offer(String category, long estimate) {
+        Integer position = heapPositions.get(category);
+        if (position != null) {
+            // Estimates only grow, so the entry can only move down the min-heap
+            heapCents[position] = estimate;
+            siftDown(position);
+        } else if (heapSize < capacity) {
+            heapCategories[heapSize] = category;
+            heapCents[heapSize] = estimate;
+            heapPositions.put(category, heapSize);
+            siftUp(heapSize++);
+        } else if (estimate > heapCents[0]) {
+            heapPositions.remove(heapCategories[0]);
+            heapCategories[0] = category;
+            heapCents[0] = estimate;
+            heapPositions.put(category, 0);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heapCents[parent] <= heapCents[position]) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < heapSize && heapCents[left] < heapCents[smallest]) {
+                smallest = left;
+            }
+            if (right < heapSize && heapCents[right] < heapCents[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String category = heapCategories[a];
+        heapCategories[a] = heapCategories[b];
+        heapCategories[b] = category;
+        long cents = heapCents[a];
+        heapCents[a] = heapCents[b];
+        heapCents[b] = cents;
+        heapPositions.put(heapCategories[a], a);
+        heapPositions.put(heapCategories[b], b);
+    }
+
+    private int column(long hash, int row) {
+        return (int) mix(hash + ROW_SEED * (row + 1)) & (width - 1);
+    }
+
+    // Finalizer of SplitMix64: spreads every input bit over the whole word
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
+
+/**
+ * Streams SKU-level sales with a skewed popularity through SalesHeavyHitters
+ * and through an exact HashMap, comparing the top categories, time and memory.
+ *
+ * Usage: java com.example.javaguide.HeavyHittersBenchmark [records] [distinctSkus]
+ */
+class HeavyHittersBenchmark {
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int skus = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int top = 10;
+
+        String[] names = new String[skus];
+        for (int i = 0; i < skus; i++) {
+            names[i] = "SKU-" + i;
+        }
+        SplittableRandom random = new SplittableRandom(13);
+        List<SalesRecord> sales = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            // Roughly Zipf distributed: a few SKUs sell far more often than the rest
+            int sku = (int) Math.min(skus - 1, Math.floor(Math.pow(skus, random.nextDouble())) - 1);
+            sales.add(new SalesRecord(names[sku], 1 + random.nextInt(10_000) / 100.0));
+        }
+
+        for (int round = 1; round <= 3; round++) {
+            long begin = System.nanoTime();
+            SalesHeavyHitters sketch = sales.parallelStream()
+                .collect(SalesHeavyHitters.collector(100, 0.0001, 0.001));
+            long sketchNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            Map<String, Double> exact = sales.stream()
+                .collect(Collectors.groupingBy(SalesRecord::category, Collectors.summingDouble(SalesRecord::amount)));
+            long exactNanos = System.nanoTime() - begin;
+
+            List<String> expectedTop = exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(top)
+                .map(Map.Entry::getKey)
+                .toList();
+            List<SalesHeavyHitters.HeavyHitter> found = sketch.topN(top);
+            long matches = found.stream().filter(h -> expectedTop.contains(h.category())).count();
+            double worstError = 0;
+            for (SalesHeavyHitters.HeavyHitter hitter : found) {
+                double error = hitter.estimatedAmount() - exact.get(hitter.category());
+                if (error < -0.01) {
+                    throw new IllegalStateException("Underestimated " + hitter);
+                }
+                worstError = Math.max(worstError, error);
+            }
+
+            out.printf("Round %d: sketch %,.0f rec/s, %,d KB | HashMap %,.0f rec/s, %,d categories | " +
+                    "top %d recall %d/%d, worst error %.2f (bound %.2f)%n",
+                round, records * 1e9 / sketchNanos, sketch.footprintBytes() / 1024,
+                records * 1e9 / exactNanos, exact.size(),
+                top, matches, top, worstError, sketch.errorBound());
+        }
+    }
+}
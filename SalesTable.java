@@ -0,0 +1,332 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+import static java.lang.System.out;
+
+/**
+ * Column-oriented storage for sales records with a parallel group-by engine.
+ *
+ * Categories are dictionary-encoded: each distinct category string gets a
+ * small int id, and rows store only that id. Amounts live in a primitive
+ * double column. Aggregation splits the rows into partitions, computes
+ * count/sum/min/max per category id in plain arrays, and merges the partial
+ * results at the end, so no record is boxed and no string is hashed per row.
+ *
+ * Appending is not thread-safe; aggregation may run while no rows are being added.
+ */
+class SalesTable {
+    // Rows handled by one fork/join task
+    static final int PARTITION_ROWS = 1 << 16;
+
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categories = new ArrayList<>();
+    private int[] categoryColumn;
+    private double[] amountColumn;
+    private int size;
+
+    /**
+     * Aggregated values for one category.
+     */
+    record CategoryStats(long count, double sum, double min, double max) {
+        public double average() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+
+    public SalesTable() {
+        this(1024);
+    }
+
+    public SalesTable(int initialCapacity) {
+        categoryColumn = new int[Math.max(16, initialCapacity)];
+        amountColumn = new double[categoryColumn.length];
+    }
+
+    public static SalesTable of(List<SalesRecord> records) {
+        SalesTable table = new SalesTable(records.size());
+        for (SalesRecord record : records) {
+            table.add(record);
+        }
+        return table;
+    }
+
+    public void add(SalesRecord record) {
+        add(record.category(), record.amount());
+    }
+
+    public void add(String category, double amount) {
+        add(categoryId(category), amount);
+    }
+
+    /**
+     * Appends a row whose category was already encoded with categoryId().
+     */
+    public void add(int categoryId, double amount) {
+        if (categoryId < 0 || categoryId >= categories.size()) {
+            throw new IllegalArgumentException("Unknown category id: " + categoryId);
+        }
+        if (size == categoryColumn.length) {
+            int capacity = categoryColumn.length * 2;
+            categoryColumn = Arrays.copyOf(categoryColumn, capacity);
+            amountColumn = Arrays.copyOf(amountColumn, capacity);
+        }
+        categoryColumn[size] = categoryId;
+        amountColumn[size] = amount;
+        size++;
+    }
+
+    /**
+     * Returns the dictionary id for a category, adding it if it is new.
+     */
+    public int categoryId(String category) {
+        Integer id = categoryIds.get(category);
+        if (id == null) {
+            id = categories.size();
+            categoryIds.put(category, id);
+            categories.add(category);
+        }
+        return id;
+    }
+
+    public String categoryName(int categoryId) {
+        return categories.get(categoryId);
+    }
+
+    public int categoryCount() {
+        return categories.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public SalesRecord get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return new SalesRecord(categories.get(categoryColumn[row]), amountColumn[row]);
+    }
+
+    /**
+     * Total amount per category, the same shape as
+     * groupingBy(SalesRecord::category, summingDouble(SalesRecord::amount)).
+     */
+    public Map<String, Double> sumByCategory() {
+        GroupTotals totals = aggregate();
+        Map<String, Double> result = new HashMap<>();
+        for (int id = 0; id < totals.count.length; id++) {
+            if (totals.count[id] > 0) {
+                result.put(categories.get(id), totals.sum(id));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count, sum, min, max and average per category, in dictionary order.
+     */
+    public Map<String, CategoryStats> statsByCategory() {
+        GroupTotals totals = aggregate();
+        Map<String, CategoryStats> result = new LinkedHashMap<>();
+        for (int id = 0; id < totals.count.length; id++) {
+            if (totals.count[id] > 0) {
+                result.put(categories.get(id), totals.stats(id));
+            }
+        }
+        return result;
+    }
+
+    private GroupTotals aggregate() {
+        if (size <= PARTITION_ROWS) {
+            return new AggregateTask(this, 0, size).compute();
+        }
+        return ForkJoinPool.commonPool().invoke(new AggregateTask(this, 0, size));
+    }
+
+    /**
+     * Partial results for one partition, indexed by category id. Sums use
+     * Kahan compensation, like Collectors.summingDouble.
+     */
+    static final class GroupTotals {
+        long[] count;
+        double[] sum;
+        double[] compensation;
+        double[] min;
+        double[] max;
+
+        GroupTotals(int groups) {
+            count = new long[groups];
+            sum = new double[groups];
+            compensation = new double[groups];
+            min = new double[groups];
+            max = new double[groups];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        int groups() {
+            return count.length;
+        }
+
+        /**
+         * Makes room for group ids below the given count, for dictionaries that grow while reading.
+         */
+        void ensureGroups(int groups) {
+            int old = count.length;
+            if (groups <= old) {
+                return;
+            }
+            int capacity = Math.max(groups, old * 2);
+            count = Arrays.copyOf(count, capacity);
+            sum = Arrays.copyOf(sum, capacity);
+            compensation = Arrays.copyOf(compensation, capacity);
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+            Arrays.fill(min, old, capacity, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, old, capacity, Double.NEGATIVE_INFINITY);
+        }
+
+        void add(int group, double value) {
+            count[group]++;
+            addToSum(group, value);
+            if (value < min[group]) {
+                min[group] = value;
+            }
+            if (value > max[group]) {
+                max[group] = value;
+            }
+        }
+
+        void merge(GroupTotals other) {
+            for (int g = 0; g < other.count.length; g++) {
+                mergeGroup(g, other, g);
+            }
+        }
+
+        /**
+         * Adds other's group otherGroup into this object's group.
+         */
+        void mergeGroup(int group, GroupTotals other, int otherGroup) {
+            if (other.count[otherGroup] == 0) {
+                return;
+            }
+            count[group] += other.count[otherGroup];
+            addToSum(group, other.sum(otherGroup));
+            min[group] = Math.min(min[group], other.min[otherGroup]);
+            max[group] = Math.max(max[group], other.max[otherGroup]);
+        }
+
+        private void addToSum(int group, double value) {
+            double y = value - compensation[group];
+            double t = sum[group] + y;
+            compensation[group] = (t - sum[group]) - y;
+            sum[group] = t;
+        }
+
+        double sum(int group) {
+            return sum[group] - compensation[group];
+        }
+
+        CategoryStats stats(int group) {
+            return new CategoryStats(count[group], sum(group), min[group], max[group]);
+        }
+    }
+
+    private static final class AggregateTask extends RecursiveTask<GroupTotals> {
+        private final SalesTable table;
+        private final int from;
+        private final int to;
+
+        AggregateTask(SalesTable table, int from, int to) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected GroupTotals compute() {
+            if (to - from <= PARTITION_ROWS) {
+                GroupTotals totals = new GroupTotals(table.categories.size());
+                int[] categories = table.categoryColumn;
+                double[] amounts = table.amountColumn;
+                for (int row = from; row < to; row++) {
+                    totals.add(categories[row], amounts[row]);
+                }
+                return totals;
+            }
+            int middle = (from + to) >>> 1;
+            AggregateTask left = new AggregateTask(table, from, middle);
+            left.fork();
+            GroupTotals right = new AggregateTask(table, middle, to).compute();
+            GroupTotals result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+}
+
+/**
+ * Compares SalesTable aggregation with the Collectors.groupingBy version used
+ * in demonstratePracticalExamples.
+ *
+ * Usage: java com.example.javaguide.SalesAggregationBenchmark [rows] [categories]
+ */
+class SalesAggregationBenchmark {
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int categoryCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        String[] categoryNames = new String[categoryCount];
+        for (int i = 0; i < categoryCount; i++) {
+            categoryNames[i] = "Category-" + i;
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        List<SalesRecord> records = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            records.add(new SalesRecord(categoryNames[random.nextInt(categoryCount)],
+                random.nextInt(100_000) / 100.0));
+        }
+        SalesTable table = SalesTable.of(records);
+
+        for (int round = 1; round <= 5; round++) {
+            long begin = System.nanoTime();
+            Map<String, Double> streamResult = records.stream()
+                .collect(Collectors.groupingBy(
+                    SalesRecord::category,
+                    Collectors.summingDouble(SalesRecord::amount)
+                ));
+            long streamNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            Map<String, Double> tableResult = table.sumByCategory();
+            long tableNanos = System.nanoTime() - begin;
+
+            checkSame(streamResult, tableResult);
+            out.printf("Round %d: stream %,.0f rows/s, columnar %,.0f rows/s (%.1fx)%n",
+                round, rows * 1e9 / streamNanos, rows * 1e9 / tableNanos, (double) streamNanos / tableNanos);
+        }
+    }
+
+    private static void checkSame(Map<String, Double> expected, Map<String, Double> actual) {
+        if (!expected.keySet().equals(actual.keySet())) {
+            throw new IllegalStateException("Different categories: " + expected.keySet() + " vs " + actual.keySet());
+        }
+        expected.forEach((category, total) -> {
+            // Partition order changes the rounding of the last bits only
+            if (Math.abs(total - actual.get(category)) > Math.abs(total) * 1e-12) {
+                throw new IllegalStateException(category + ": " + total + " vs " + actual.get(category));
+            }
+        });
+    }
+}
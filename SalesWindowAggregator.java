@@ -0,0 +1,398 @@
+package com.example.javaguide;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.lang.System.out;
+
+/**
+ * Incremental per-category sales totals over sliding and tumbling windows.
+ *
+ * Time is cut into fixed panes (for example one minute). Every event is added
+ * to the totals of its pane, and each window keeps running totals that are
+ * updated as events arrive and as whole panes drop out of it. A query just
+ * copies those totals, so it costs O(categories) no matter how many events
+ * the window covers; memory is one pane per pane-length of the longest window.
+ *
+ * Amounts are kept as whole cents in longs, so subtracting an expired pane
+ * leaves no rounding drift behind.
+ *
+ * Windows follow event time. Events older than the longest window are
+ * counted as dropped; call advanceTo() with the current time so windows keep
+ * moving when no events arrive. All methods are synchronized.
+ */
+class SalesWindowAggregator {
+    private static final long EMPTY_PANE = Long.MIN_VALUE;
+
+    private final long paneMillis;
+    private final Totals[] panes;
+    private final long[] paneIndexes;
+    private final Window[] windows;
+    private final Map<String, Integer> categoryIds = new HashMap<>();
+    private final List<String> categories = new ArrayList<>();
+    private long currentPane = EMPTY_PANE;
+    private long droppedEvents;
+
+    /**
+     * Totals for one category in one window.
+     */
+    record WindowTotals(long count, double sum) {
+        public double average() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+
+    /**
+     * @param paneSize granularity of the windows; every window must be a multiple of it
+     * @param windows  window lengths that can be queried, e.g. 5 minutes, 1 hour, 24 hours
+     */
+    public SalesWindowAggregator(Duration paneSize, Duration... windows) {
+        paneMillis = paneSize.toMillis();
+        if (paneMillis <= 0 || windows.length == 0) {
+            throw new IllegalArgumentException("Pane size must be positive and at least one window is required");
+        }
+        this.windows = new Window[windows.length];
+        long longest = 0;
+        for (int i = 0; i < windows.length; i++) {
+            long millis = windows[i].toMillis();
+            if (millis <= 0 || millis % paneMillis != 0) {
+                throw new IllegalArgumentException("Window " + windows[i] + " is not a multiple of the pane size " + paneSize);
+            }
+            this.windows[i] = new Window(windows[i], millis / paneMillis);
+            longest = Math.max(longest, millis / paneMillis);
+        }
+        if (longest > 1 << 20) {
+            throw new IllegalArgumentException("Too many panes: " + longest);
+        }
+        panes = new Totals[(int) longest];
+        paneIndexes = new long[panes.length];
+        for (int i = 0; i < panes.length; i++) {
+            panes[i] = new Totals();
+        }
+        Arrays.fill(paneIndexes, EMPTY_PANE);
+    }
+
+    public void record(Instant time, SalesRecord sale) {
+        record(time.toEpochMilli(), sale.category(), sale.amount());
+    }
+
+    public synchronized void record(long epochMillis, String category, double amount) {
+        long cents = Math.round(amount * 100);
+        long pane = Math.floorDiv(epochMillis, paneMillis);
+        if (currentPane == EMPTY_PANE || pane > currentPane) {
+            advanceToPane(pane);
+        } else if (currentPane - pane >= panes.length) {
+            droppedEvents++;
+            return;
+        }
+        int id = categoryId(category);
+        int slot = slot(pane);
+        if (paneIndexes[slot] != pane) {
+            // A late event for a pane the ring has not held yet (before the first event or
+            // after a jump): stamp it, or the pane would never be subtracted when it expires
+            panes[slot].clear();
+            paneIndexes[slot] = pane;
+        }
+        panes[slot].add(id, 1, cents);
+        for (Window window : windows) {
+            if (pane > currentPane - window.lengthPanes) {
+                window.sliding.add(id, 1, cents);
+            }
+            // Late events still count towards the tumbling window they belong to
+            long period = Math.floorDiv(pane, window.lengthPanes);
+            if (period == Math.floorDiv(currentPane, window.lengthPanes)) {
+                window.open.add(id, 1, cents);
+            } else if (period == window.closedPeriod) {
+                window.closed.add(id, 1, cents);
+            }
+        }
+    }
+
+    /**
+     * Moves all windows forward to the given time, expiring panes that fall out of them.
+     */
+    public synchronized void advanceTo(Instant now) {
+        long pane = Math.floorDiv(now.toEpochMilli(), paneMillis);
+        if (currentPane == EMPTY_PANE || pane > currentPane) {
+            advanceToPane(pane);
+        }
+    }
+
+    /**
+     * Totals of the last `window` of event time, ending with the newest pane.
+     */
+    public synchronized Map<String, WindowTotals> sliding(Duration window) {
+        return toMap(window(window).sliding);
+    }
+
+    /**
+     * Totals of the most recent completed tumbling window of this length;
+     * tumbling windows are aligned to the epoch (a 1 hour window runs from
+     * hh:00 to hh:59:59.999 UTC).
+     */
+    public synchronized Map<String, WindowTotals> tumbling(Duration window) {
+        return toMap(window(window).closed);
+    }
+
+    /**
+     * Start of the window returned by tumbling(), or null before the first one completes.
+     */
+    public synchronized Instant tumblingStart(Duration window) {
+        Window w = window(window);
+        return w.closedPeriod == EMPTY_PANE ? null : Instant.ofEpochMilli(w.closedPeriod * w.lengthPanes * paneMillis);
+    }
+
+    public synchronized long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public synchronized int categoryCount() {
+        return categories.size();
+    }
+
+    private void advanceToPane(long target) {
+        if (currentPane == EMPTY_PANE) {
+            currentPane = target;
+            paneIndexes[slot(target)] = target;
+            return;
+        }
+        if (target - currentPane >= panes.length) {
+            // Everything in the ring has expired; start over instead of stepping pane by pane
+            for (int i = 0; i < panes.length; i++) {
+                panes[i].clear();
+                paneIndexes[i] = EMPTY_PANE;
+            }
+            for (Window window : windows) {
+                window.sliding.clear();
+                long period = Math.floorDiv(target, window.lengthPanes);
+                if (period - 1 == Math.floorDiv(currentPane, window.lengthPanes)) {
+                    window.closeOpen(period - 1);
+                } else {
+                    window.closed.clear();
+                    window.open.clear();
+                    window.closedPeriod = period - 1;
+                }
+            }
+            currentPane = target;
+            paneIndexes[slot(target)] = target;
+            return;
+        }
+        while (currentPane < target) {
+            long next = currentPane + 1;
+            for (Window window : windows) {
+                long leaving = next - window.lengthPanes;
+                int leavingSlot = slot(leaving);
+                if (paneIndexes[leavingSlot] == leaving) {
+                    window.sliding.subtract(panes[leavingSlot]);
+                }
+                if (Math.floorMod(next, window.lengthPanes) == 0) {
+                    window.closeOpen(Math.floorDiv(next, window.lengthPanes) - 1);
+                }
+            }
+            // The pane being reused left even the longest window in the loop above
+            int nextSlot = slot(next);
+            panes[nextSlot].clear();
+            paneIndexes[nextSlot] = next;
+            currentPane = next;
+        }
+    }
+
+    private int slot(long pane) {
+        return (int) Math.floorMod(pane, (long) panes.length);
+    }
+
+    private int categoryId(String category) {
+        Integer id = categoryIds.get(category);
+        if (id == null) {
+            id = categories.size();
+            categoryIds.put(category, id);
+            categories.add(category);
+        }
+        return id;
+    }
+
+    private Window window(Duration length) {
+        for (Window window : windows) {
+            if (window.length.equals(length)) {
+                return window;
+            }
+        }
+        throw new IllegalArgumentException("Window " + length + " was not registered");
+    }
+
+    private Map<String, WindowTotals> toMap(Totals totals) {
+        Map<String, WindowTotals> result = new LinkedHashMap<>();
+        for (int id = 0; id < totals.count.length; id++) {
+            if (totals.count[id] > 0) {
+                result.put(categories.get(id), new WindowTotals(totals.count[id], totals.cents[id] / 100.0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count and cents per category id; the arrays grow as categories appear.
+     */
+    private static final class Totals {
+        long[] count = new long[8];
+        long[] cents = new long[8];
+
+        void add(int id, long events, long amountCents) {
+            if (id >= count.length) {
+                int capacity = Math.max(id + 1, count.length * 2);
+                count = Arrays.copyOf(count, capacity);
+                cents = Arrays.copyOf(cents, capacity);
+            }
+            count[id] += events;
+            cents[id] += amountCents;
+        }
+
+        void subtract(Totals pane) {
+            for (int id = 0; id < pane.count.length; id++) {
+                if (pane.count[id] != 0) {
+                    count[id] -= pane.count[id];
+                    cents[id] -= pane.cents[id];
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(count, 0);
+            Arrays.fill(cents, 0);
+        }
+    }
+
+    private static final class Window {
+        final Duration length;
+        final long lengthPanes;
+        final Totals sliding = new Totals();
+        Totals open = new Totals();
+        Totals closed = new Totals();
+        long closedPeriod = EMPTY_PANE;
+
+        Window(Duration length, long lengthPanes) {
+            this.length = length;
+            this.lengthPanes = lengthPanes;
+        }
+
+        void closeOpen(long period) {
+            Totals finished = open;
+            open = closed;
+            open.clear();
+            closed = finished;
+            closedPeriod = period;
+        }
+    }
+}
+
+/**
+ * Simulates a day of sales events and refreshes a dashboard every few
+ * hundred events, comparing the window aggregator with re-running
+ * groupingBy over the events inside each window. Also checks that late
+ * events leave the sliding window once their pane expires.
+ *
+ * Usage: java com.example.javaguide.SalesWindowBenchmark [events] [refreshEvery]
+ */
+class SalesWindowBenchmark {
+
+    public static void main(String[] args) {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int refreshEvery = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Duration[] windows = {Duration.ofMinutes(5), Duration.ofHours(1), Duration.ofHours(24)};
+        String[] categoryNames = {"Electronics", "Books", "Clothing", "Food", "Toys", "Garden", "Sports", "Beauty"};
+
+        SplittableRandom random = new SplittableRandom(5);
+        long[] times = new long[events];
+        SalesRecord[] sales = new SalesRecord[events];
+        long dayMillis = Duration.ofHours(36).toMillis();
+        for (int i = 0; i < events; i++) {
+            times[i] = (long) i * dayMillis / events;
+            sales[i] = new SalesRecord(categoryNames[random.nextInt(categoryNames.length)], random.nextInt(100_000) / 100.0);
+        }
+
+        for (int round = 1; round <= 3; round++) {
+            SalesWindowAggregator aggregator = new SalesWindowAggregator(Duration.ofMinutes(1), windows);
+            long begin = System.nanoTime();
+            long queries = 0;
+            for (int i = 0; i < events; i++) {
+                aggregator.record(times[i], sales[i].category(), sales[i].amount());
+                if (i % refreshEvery == 0) {
+                    for (Duration window : windows) {
+                        aggregator.sliding(window);
+                        queries++;
+                    }
+                }
+            }
+            long windowNanos = System.nanoTime() - begin;
+
+            // Recomputing from the raw events; only a sample of refreshes, as it is far slower
+            int sampled = 0;
+            begin = System.nanoTime();
+            Map<String, Double> recomputed = null;
+            for (int i = refreshEvery; i < events && sampled < 20; i += events / 20) {
+                long end = times[i];
+                int last = i;
+                recomputed = IntStream.rangeClosed(0, last)
+                    .filter(j -> times[j] > end - windows[2].toMillis())
+                    .mapToObj(j -> sales[j])
+                    .collect(Collectors.groupingBy(SalesRecord::category, Collectors.summingDouble(SalesRecord::amount)));
+                sampled++;
+            }
+            long recomputeNanos = System.nanoTime() - begin;
+
+            // Check the final 24 hour window against a full recomputation, to the cent
+            long windowEnd = Math.floorDiv(times[events - 1], 60_000L) * 60_000L + 60_000L;
+            Map<String, Long> expected = new HashMap<>();
+            for (int i = 0; i < events; i++) {
+                if (times[i] >= windowEnd - windows[2].toMillis()) {
+                    expected.merge(sales[i].category(), Math.round(sales[i].amount() * 100), Long::sum);
+                }
+            }
+            aggregator.sliding(windows[2]).forEach((category, totals) -> {
+                if (Math.round(totals.sum() * 100) != expected.get(category)) {
+                    throw new IllegalStateException(category + ": " + totals.sum() + " vs " + expected.get(category) / 100.0);
+                }
+            });
+
+            out.printf("Round %d: %,.0f events/s including %,d window queries; " +
+                    "groupingBy recompute %.1f ms/query (%d categories)%n",
+                round, events * 1e9 / windowNanos, queries,
+                recomputeNanos / 1e6 / sampled, recomputed == null ? 0 : recomputed.size());
+        }
+        checkLateEvents();
+    }
+
+    /**
+     * Late events arriving right after the first event and right after a jump
+     * forward must expire with their own pane, not stay in the window.
+     */
+    private static void checkLateEvents() {
+        Duration window = Duration.ofMinutes(5);
+        long minute = 60_000;
+        SalesWindowAggregator aggregator = new SalesWindowAggregator(Duration.ofMinutes(1), window);
+        aggregator.record(10 * minute, "Books", 10.00);
+        aggregator.record(7 * minute, "Books", 1.00);
+        aggregator.advanceTo(Instant.ofEpochMilli(12 * minute));
+        Map<String, SalesWindowAggregator.WindowTotals> afterFirst = aggregator.sliding(window);
+
+        aggregator.record(100 * minute, "Toys", 5.00);
+        aggregator.record(98 * minute, "Toys", 2.00);
+        aggregator.advanceTo(Instant.ofEpochMilli(103 * minute));
+        Map<String, SalesWindowAggregator.WindowTotals> afterJump = aggregator.sliding(window);
+
+        if (!afterFirst.equals(Map.of("Books", new SalesWindowAggregator.WindowTotals(1, 10.00)))
+                || !afterJump.equals(Map.of("Toys", new SalesWindowAggregator.WindowTotals(1, 5.00)))) {
+            throw new IllegalStateException("Late events did not expire: " + afterFirst + ", " + afterJump);
+        }
+        out.println("Late events expire with their panes: " + afterFirst + ", " + afterJump);
+    }
+}
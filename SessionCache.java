@@ -0,0 +1,541 @@
+package com.example.javaguide;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+import static java.lang.System.out;
+
+/**
+ * Session tokens with a fixed lifetime and a maximum number of live sessions.
+ *
+ * A token is 128 random bits written as 32 hex characters. Tokens are kept
+ * in striped open-addressing tables of primitive arrays, each stripe guarded
+ * by a StampedLock. Validation parses the token in place and probes the
+ * table under an optimistic read, so it takes no lock and allocates nothing
+ * in the common case.
+ *
+ * Expired sessions are removed lazily: validation ignores them, and every
+ * new session sweeps a couple of slots of its stripe. The session limit
+ * applies to the cache as a whole: only once maxSessions sessions are stored
+ * does a new one evict the session closest to expiry among a few neighbours,
+ * in its own stripe or the next one that holds any. Stripe tables grow when
+ * random tokens fill one stripe more than the others, so no live session is
+ * evicted while the cache is below its limit.
+ */
+class SessionCache {
+    private static final int SNAPSHOT_MAGIC = 0x53455353; // "SESS"
+    private static final int EVICTION_SAMPLE = 8;
+    private static final int SWEEP_PER_INSERT = 2;
+    private static final byte[] HEX_VALUES = new byte['g' + 1];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int digit = 0; digit < 16; digit++) {
+            HEX_VALUES[Character.forDigit(digit, 16)] = (byte) digit;
+            HEX_VALUES[Character.toUpperCase(Character.forDigit(digit, 16))] = (byte) digit;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final long ttlMillis;
+    private final int maxSessions;
+    // Sessions stored in all stripes plus insertions in progress
+    private final AtomicInteger stored = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param maxSessions upper bound on stored sessions, over all stripes together
+     * @param ttl         lifetime of a session from the moment it is issued
+     */
+    public SessionCache(int maxSessions, Duration ttl) {
+        if (maxSessions < 1 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Need room for at least one session and a positive lifetime");
+        }
+        int stripeCount = Math.min(Integer.highestOneBit(Math.max(1, maxSessions / 16)),
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe((maxSessions + stripeCount - 1) / stripeCount, stored);
+        }
+        stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+        ttlMillis = ttl.toMillis();
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Starts a session for the user and returns its token.
+     */
+    public String issue(String username) {
+        long high;
+        long low;
+        do {
+            high = random.nextLong();
+            low = random.nextLong();
+        } while (high == 0 && low == 0);
+        put(high, low, System.currentTimeMillis() + ttlMillis, username);
+        return toToken(high, low);
+    }
+
+    /**
+     * Returns the user of a live session, or null if the token is unknown,
+     * expired or malformed.
+     */
+    public String validate(String token) {
+        if (token == null || token.length() != 32 || !isHex(token)) {
+            return null;
+        }
+        long high = parseHex(token, 0);
+        long low = parseHex(token, 16);
+        return stripeOf(high).get(high, low, System.currentTimeMillis());
+    }
+
+    /**
+     * Ends a session.
+     *
+     * @return true if the token belonged to a session
+     */
+    public boolean invalidate(String token) {
+        if (token == null || token.length() != 32 || !isHex(token)) {
+            return false;
+        }
+        long high = parseHex(token, 0);
+        long low = parseHex(token, 16);
+        return stripeOf(high).remove(high, low);
+    }
+
+    /**
+     * Live and not yet removed expired sessions.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes all live sessions to the file, replacing it atomically.
+     * Format: [int magic][per session: long high][long low][long expiresAt][UTF username], ending with high = low = 0.
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        SnapshotFiles.replace(file, output -> {
+            output.writeInt(SNAPSHOT_MAGIC);
+            for (Stripe stripe : stripes) {
+                long stamp = stripe.lock.readLock();
+                try {
+                    Table table = stripe.table;
+                    for (int slot = 0; slot < table.users.length; slot++) {
+                        if (table.slots[slot * 3 + 2] > now) {
+                            output.writeLong(table.slots[slot * 3]);
+                            output.writeLong(table.slots[slot * 3 + 1]);
+                            output.writeLong(table.slots[slot * 3 + 2]);
+                            output.writeUTF(table.users[slot]);
+                        }
+                    }
+                } finally {
+                    stripe.lock.unlockRead(stamp);
+                }
+            }
+            output.writeLong(0);
+            output.writeLong(0);
+        });
+    }
+
+    /**
+     * Restores sessions from a snapshot, skipping those that expired meanwhile.
+     * A missing file restores nothing.
+     *
+     * @return number of sessions restored
+     */
+    public int readSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int restored = 0;
+        long now = System.currentTimeMillis();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a session snapshot: " + file);
+            }
+            while (true) {
+                long high = input.readLong();
+                long low = input.readLong();
+                if (high == 0 && low == 0) {
+                    break;
+                }
+                long expiresAt = input.readLong();
+                String username = input.readUTF();
+                if (expiresAt > now) {
+                    put(high, low, expiresAt, username);
+                    restored++;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated session snapshot: " + file, e);
+        }
+        return restored;
+    }
+
+    private void put(long high, long low, long expiresAt, String username) {
+        Stripe stripe = stripeOf(high);
+        long stamp = stripe.lock.writeLock();
+        try {
+            // A known token (restoring a snapshot twice, say) is updated without needing room
+            if (stripe.replaceLocked(high, low, expiresAt, username)) {
+                return;
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+        // Reserve room first, so concurrent inserts cannot overshoot the limit together
+        if (stored.incrementAndGet() > maxSessions) {
+            evictOne(high);
+        }
+        stamp = stripe.lock.writeLock();
+        try {
+            if (!stripe.putLocked(high, low, expiresAt, username, System.currentTimeMillis())) {
+                // Replaced an existing session, so the reservation was not needed
+                stored.decrementAndGet();
+            }
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Evicts one session, starting at the stripe of the new token. Only one
+     * stripe lock is held at a time.
+     */
+    private void evictOne(long high) {
+        int first = stripes.length == 1 ? 0 : (int) (high >>> stripeShift);
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(first + i) & (stripes.length - 1)];
+            long stamp = stripe.lock.writeLock();
+            try {
+                if (stripe.size > 0) {
+                    stripe.evictLocked(high);
+                    return;
+                }
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+        // Every stripe is empty: the other reservations are still being inserted
+    }
+
+    private Stripe stripeOf(long high) {
+        return stripes.length == 1 ? stripes[0] : stripes[(int) (high >>> stripeShift)];
+    }
+
+    static String toToken(long high, long low) {
+        char[] text = new char[32];
+        for (int i = 0; i < 16; i++) {
+            text[i] = Character.forDigit((int) (high >>> (60 - 4 * i)) & 0xF, 16);
+            text[16 + i] = Character.forDigit((int) (low >>> (60 - 4 * i)) & 0xF, 16);
+        }
+        return new String(text);
+    }
+
+    private static boolean isHex(String token) {
+        int invalid = 0;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            // Out-of-table characters and table entries of -1 both set the sign bit
+            invalid |= c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        }
+        return invalid >= 0;
+    }
+
+    private static long parseHex(String token, int from) {
+        long value = 0;
+        for (int i = from; i < from + 16; i++) {
+            value = (value << 4) | HEX_VALUES[token.charAt(i)];
+        }
+        return value;
+    }
+
+    /**
+     * One open-addressing table with linear probing. Each slot is three
+     * consecutive longs (token high bits, low bits, expiry), so a probe
+     * touches one cache line; the user array is only read on a hit. A slot
+     * with expiry 0 is empty. The arrays never change size; a growing stripe
+     * swaps in a larger Table, so a reader always sees arrays and a mask that
+     * belong together.
+     */
+    private static final class Table {
+        final long[] slots;
+        final String[] users;
+        final int mask;
+
+        Table(int length) {
+            slots = new long[length * 3];
+            users = new String[length];
+            mask = length - 1;
+        }
+    }
+
+    /**
+     * Writers hold the write lock; readers probe optimistically and retry
+     * under the read lock if a writer got in between.
+     */
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        final AtomicInteger stored;
+        Table table;
+        int size;
+        int sweepCursor;
+
+        Stripe(int expectedSessions, AtomicInteger stored) {
+            this.stored = stored;
+            // At most half full, so probe sequences stay short
+            this.table = new Table(Integer.highestOneBit(Math.max(2, expectedSessions) * 2 - 1) << 1);
+        }
+
+        String get(long keyHigh, long keyLow, long now) {
+            long stamp = lock.tryOptimisticRead();
+            String user = find(table, keyHigh, keyLow, now);
+            if (lock.validate(stamp)) {
+                return user;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, keyHigh, keyLow, now);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static String find(Table table, long keyHigh, long keyLow, long now) {
+            long[] slots = table.slots;
+            int mask = table.mask;
+            int slot = (int) keyLow & mask;
+            // Bounded so a read racing with a writer cannot loop forever
+            for (int probes = 0; probes <= mask; probes++) {
+                int base = slot * 3;
+                long expires = slots[base + 2];
+                if (expires == 0) {
+                    return null;
+                }
+                if (slots[base] == keyHigh && slots[base + 1] == keyLow) {
+                    return expires > now ? table.users[slot] : null;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        boolean remove(long keyHigh, long keyLow) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = indexOfLocked(keyHigh, keyLow);
+                if (table.slots[slot * 3 + 2] == 0) {
+                    return false;
+                }
+                deleteLocked(slot);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean replaceLocked(long keyHigh, long keyLow, long expires, String user) {
+            int slot = indexOfLocked(keyHigh, keyLow);
+            if (table.slots[slot * 3 + 2] == 0) {
+                return false;
+            }
+            table.slots[slot * 3 + 2] = expires;
+            table.users[slot] = user;
+            return true;
+        }
+
+        /**
+         * @return true if the session is new, false if it replaced one with the same token
+         */
+        boolean putLocked(long keyHigh, long keyLow, long expires, String user, long now) {
+            for (int i = 0; i < SWEEP_PER_INSERT && size > 0; i++) {
+                sweepCursor = (sweepCursor + 1) & table.mask;
+                long cursorExpires = table.slots[sweepCursor * 3 + 2];
+                if (cursorExpires != 0 && cursorExpires <= now) {
+                    deleteLocked(sweepCursor);
+                }
+            }
+            int slot = indexOfLocked(keyHigh, keyLow);
+            boolean added = table.slots[slot * 3 + 2] == 0;
+            if (added) {
+                if ((size + 1) * 2 > table.users.length) {
+                    growLocked();
+                    slot = indexOfLocked(keyHigh, keyLow);
+                }
+                size++;
+            }
+            long[] slots = table.slots;
+            slots[slot * 3] = keyHigh;
+            slots[slot * 3 + 1] = keyLow;
+            slots[slot * 3 + 2] = expires;
+            table.users[slot] = user;
+            return added;
+        }
+
+        /**
+         * The slot holding the key, or the empty slot where it would go.
+         */
+        private int indexOfLocked(long keyHigh, long keyLow) {
+            long[] slots = table.slots;
+            int mask = table.mask;
+            int slot = (int) keyLow & mask;
+            while (slots[slot * 3 + 2] != 0
+                    && (slots[slot * 3] != keyHigh || slots[slot * 3 + 1] != keyLow)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Copies every session into a table twice the size, keeping it at most half full.
+         */
+        private void growLocked() {
+            Table old = table;
+            Table grown = new Table(old.users.length * 2);
+            for (int slot = 0; slot < old.users.length; slot++) {
+                if (old.slots[slot * 3 + 2] != 0) {
+                    int target = (int) old.slots[slot * 3 + 1] & grown.mask;
+                    while (grown.slots[target * 3 + 2] != 0) {
+                        target = (target + 1) & grown.mask;
+                    }
+                    System.arraycopy(old.slots, slot * 3, grown.slots, target * 3, 3);
+                    grown.users[target] = old.users[slot];
+                }
+            }
+            table = grown;
+            sweepCursor &= grown.mask;
+        }
+
+        /**
+         * Removes the session that expires first among the next few occupied
+         * slots. The stripe must not be empty.
+         */
+        void evictLocked(long near) {
+            long[] slots = table.slots;
+            int mask = table.mask;
+            int victim = -1;
+            int slot = (int) near & mask;
+            for (int seen = 0, probes = 0; seen < EVICTION_SAMPLE && probes <= mask; probes++) {
+                long expires = slots[slot * 3 + 2];
+                if (expires != 0) {
+                    if (victim < 0 || expires < slots[victim * 3 + 2]) {
+                        victim = slot;
+                    }
+                    seen++;
+                }
+                slot = (slot + 1) & mask;
+            }
+            deleteLocked(victim);
+        }
+
+        /**
+         * Backward-shift deletion: moves later entries of the probe run into
+         * the hole, so lookups never need tombstones.
+         */
+        private void deleteLocked(int hole) {
+            long[] slots = table.slots;
+            String[] users = table.users;
+            int mask = table.mask;
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (slots[slot * 3 + 2] == 0) {
+                    break;
+                }
+                int home = (int) slots[slot * 3 + 1] & mask;
+                // Move the entry if its home is not between the hole and its slot (cyclically)
+                boolean movable = hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot);
+                if (movable) {
+                    System.arraycopy(slots, slot * 3, slots, hole * 3, 3);
+                    users[hole] = users[slot];
+                    hole = slot;
+                }
+            }
+            slots[hole * 3] = 0;
+            slots[hole * 3 + 1] = 0;
+            slots[hole * 3 + 2] = 0;
+            users[hole] = null;
+            size--;
+            stored.decrementAndGet();
+        }
+    }
+}
+
+/**
+ * Measures session validation: nanoseconds and bytes allocated per lookup,
+ * compared with a ConcurrentHashMap keyed by the token string.
+ *
+ * Usage: java com.example.javaguide.SessionBenchmark [sessions] [lookups]
+ */
+class SessionBenchmark {
+
+    public static void main(String[] args) {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+
+        SessionCache cache = new SessionCache(sessions, Duration.ofHours(1));
+        Map<String, String> map = new ConcurrentHashMap<>();
+        String[] tokens = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            tokens[i] = cache.issue("user" + i);
+            map.put(tokens[i], "user" + i);
+        }
+        SplittableRandom random = new SplittableRandom(29);
+        int[] order = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            order[i] = random.nextInt(sessions);
+        }
+
+        for (int round = 1; round <= 5; round++) {
+            long allocatedBefore = BenchmarkMemory.allocatedBytes();
+            long begin = System.nanoTime();
+            int found = 0;
+            for (int i : order) {
+                if (cache.validate(tokens[i]) != null) {
+                    found++;
+                }
+            }
+            long cacheNanos = System.nanoTime() - begin;
+            long cacheBytes = BenchmarkMemory.allocatedBytes() - allocatedBefore;
+
+            begin = System.nanoTime();
+            int mapFound = 0;
+            for (int i : order) {
+                if (map.get(tokens[i]) != null) {
+                    mapFound++;
+                }
+            }
+            long mapNanos = System.nanoTime() - begin;
+
+            if (found != lookups || mapFound != lookups) {
+                throw new IllegalStateException("Lost sessions: " + found + " / " + mapFound);
+            }
+            out.printf("Round %d: SessionCache %.1f ns/lookup, %.2f B/lookup | ConcurrentHashMap %.1f ns/lookup%n",
+                round, (double) cacheNanos / lookups, (double) cacheBytes / lookups, (double) mapNanos / lookups);
+        }
+    }
+}
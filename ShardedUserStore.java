@@ -0,0 +1,349 @@
+package com.example.javaguide;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import static java.lang.System.out;
+
+/**
+ * Consistent hash ring with virtual nodes.
+ *
+ * Every node is placed on a 64-bit ring at `virtualNodes` pseudo-random
+ * points and owns the keys hashing between the previous point and each of
+ * its own. Adding or removing a node then only moves the keys of the ranges
+ * it gains or loses, about 1/N of them, and with enough virtual nodes every
+ * node gets close to the same share.
+ *
+ * The ring is immutable: withNode() and withoutNode() return a new one, so
+ * lookups need no locking.
+ */
+final class ConsistentHashRing {
+    private final int virtualNodes;
+    private final List<String> nodes;
+    private final long[] points;
+    private final int[] owners;
+
+    ConsistentHashRing(int virtualNodes) {
+        this(virtualNodes, List.of());
+    }
+
+    private ConsistentHashRing(int virtualNodes, List<String> nodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+        this.nodes = List.copyOf(nodes);
+        long[] entries = new long[nodes.size() * virtualNodes];
+        int count = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[count++] = StringHash.hash64(nodes.get(n) + "#" + v);
+            }
+        }
+        // Sort the positions by point, then lay out the points and their owners in that order
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(entries[a], entries[b]));
+        this.points = new long[entries.length];
+        this.owners = new int[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = entries[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    ConsistentHashRing withNode(String node) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Node already on the ring: " + node);
+        }
+        List<String> next = new ArrayList<>(nodes);
+        next.add(node);
+        return new ConsistentHashRing(virtualNodes, next);
+    }
+
+    ConsistentHashRing withoutNode(String node) {
+        List<String> next = new ArrayList<>(nodes);
+        if (!next.remove(node)) {
+            throw new IllegalArgumentException("Node not on the ring: " + node);
+        }
+        return new ConsistentHashRing(virtualNodes, next);
+    }
+
+    /**
+     * The node owning the key: the first point at or after the key's hash, wrapping around.
+     */
+    String nodeFor(String key) {
+        if (points.length == 0) {
+            throw new IllegalStateException("The ring has no nodes");
+        }
+        int index = Arrays.binarySearch(points, StringHash.hash64(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return nodes.get(owners[index == points.length ? 0 : index]);
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+}
+
+/**
+ * User map partitioned across in-process shards by consistent hashing.
+ *
+ * Each shard is its own ConcurrentHashMap standing in for a node; the ring
+ * decides which one holds a username. addNode() and removeNode() move only
+ * the users whose owner changed, under the write lock of a StampedLock, and
+ * then publish the new ring and shard set together as one immutable layout.
+ *
+ * Reads and writes take no lock: they use the current layout's shard and
+ * validate an optimistic stamp afterwards, so they share no cache line with
+ * each other. Only when a node joined or left meanwhile, and the user may
+ * have been moved under them, do they repeat under the read lock, which
+ * waits for the move to finish; so they never see a user in the wrong shard.
+ */
+class ShardedUserStore {
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Layout layout;
+
+    /**
+     * A ring and the shards of its nodes, replaced as a whole on every rebalance.
+     */
+    private record Layout(ConsistentHashRing ring, Map<String, ConcurrentHashMap<String, User>> shards) {
+        ConcurrentHashMap<String, User> shardFor(String username) {
+            return shards.get(ring.nodeFor(username));
+        }
+    }
+
+    /**
+     * Result of adding or removing a node.
+     */
+    record Rebalance(int movedUsers, int totalUsers, Duration elapsed) {
+        double movedFraction() {
+            return totalUsers == 0 ? 0 : (double) movedUsers / totalUsers;
+        }
+    }
+
+    public ShardedUserStore(int virtualNodes, String... nodes) {
+        ConsistentHashRing initial = new ConsistentHashRing(virtualNodes);
+        Map<String, ConcurrentHashMap<String, User>> shards = new LinkedHashMap<>();
+        for (String node : nodes) {
+            initial = initial.withNode(node);
+            shards.put(node, new ConcurrentHashMap<>());
+        }
+        this.layout = new Layout(initial, Map.copyOf(shards));
+    }
+
+    public User get(String username) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            User user = layout.shardFor(username).get(username);
+            if (lock.validate(stamp)) {
+                return user;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return layout.shardFor(username).get(username);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public User put(String username, User user) {
+        long stamp = lock.tryOptimisticRead();
+        User previous = null;
+        if (stamp != 0) {
+            previous = layout.shardFor(username).put(username, user);
+            if (lock.validate(stamp)) {
+                return previous;
+            }
+        }
+        // A rebalance ran meanwhile: the user may sit in a shard it was moving out of
+        stamp = lock.readLock();
+        try {
+            Layout current = layout;
+            ConcurrentHashMap<String, User> owner = current.shardFor(username);
+            for (ConcurrentHashMap<String, User> shard : current.shards().values()) {
+                if (shard != owner) {
+                    shard.remove(username, user);
+                }
+            }
+            User replaced = owner.put(username, user);
+            return replaced == user ? previous : replaced;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public User remove(String username) {
+        long stamp = lock.tryOptimisticRead();
+        User removed = null;
+        if (stamp != 0) {
+            removed = layout.shardFor(username).remove(username);
+            if (lock.validate(stamp)) {
+                return removed;
+            }
+        }
+        // A rebalance ran meanwhile and may have moved the user to another shard first
+        stamp = lock.readLock();
+        try {
+            User moved = layout.shardFor(username).remove(username);
+            return removed != null ? removed : moved;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public String nodeFor(String username) {
+        return layout.ring().nodeFor(username);
+    }
+
+    /**
+     * Adds an empty node and moves to it the users it now owns.
+     */
+    public Rebalance addNode(String node) {
+        long stamp = lock.writeLock();
+        try {
+            long begin = System.nanoTime();
+            Layout current = layout;
+            ConsistentHashRing next = current.ring().withNode(node);
+            ConcurrentHashMap<String, User> target = new ConcurrentHashMap<>();
+            int moved = 0;
+            for (ConcurrentHashMap<String, User> shard : current.shards().values()) {
+                Iterator<Map.Entry<String, User>> entries = shard.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, User> entry = entries.next();
+                    if (next.nodeFor(entry.getKey()).equals(node)) {
+                        target.put(entry.getKey(), entry.getValue());
+                        entries.remove();
+                        moved++;
+                    }
+                }
+            }
+            Map<String, ConcurrentHashMap<String, User>> shards = new LinkedHashMap<>(current.shards());
+            shards.put(node, target);
+            layout = new Layout(next, Map.copyOf(shards));
+            return new Rebalance(moved, size(), Duration.ofNanos(System.nanoTime() - begin));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a node, handing each of its users to the node that now owns it.
+     */
+    public Rebalance removeNode(String node) {
+        long stamp = lock.writeLock();
+        try {
+            long begin = System.nanoTime();
+            Layout current = layout;
+            ConsistentHashRing next = current.ring().withoutNode(node);
+            if (next.nodes().isEmpty()) {
+                throw new IllegalStateException("Cannot remove the last node");
+            }
+            Map<String, ConcurrentHashMap<String, User>> shards = new LinkedHashMap<>(current.shards());
+            ConcurrentHashMap<String, User> leaving = shards.remove(node);
+            leaving.forEach((username, user) -> shards.get(next.nodeFor(username)).put(username, user));
+            layout = new Layout(next, Map.copyOf(shards));
+            return new Rebalance(leaving.size(), size(), Duration.ofNanos(System.nanoTime() - begin));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Users per node, in the order the nodes were added.
+     */
+    public Map<String, Integer> loadByNode() {
+        Layout current = layout;
+        Map<String, Integer> load = new LinkedHashMap<>();
+        for (String node : current.ring().nodes()) {
+            load.put(node, current.shards().get(node).size());
+        }
+        return load;
+    }
+
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, User> shard : layout.shards().values()) {
+            size += shard.size();
+        }
+        return size;
+    }
+}
+
+/**
+ * Loads users into a sharded store, then adds and removes a node, reporting
+ * the share of users moved against the ideal 1/N, the rebalance time and
+ * the load spread across nodes for several virtual node counts.
+ *
+ * Usage: java com.example.javaguide.ShardedUserStoreBenchmark [users] [nodes]
+ */
+class ShardedUserStoreBenchmark {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int nodeCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String[] nodes = new String[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = "node-" + i;
+        }
+
+        for (int virtualNodes : new int[] {1, 16, ShardedUserStore.DEFAULT_VIRTUAL_NODES, 512}) {
+            ShardedUserStore store = new ShardedUserStore(virtualNodes, nodes);
+            long begin = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                String username = "user" + i;
+                store.put(username, new User("User " + i, username + "@example.com"));
+            }
+            long loadNanos = System.nanoTime() - begin;
+            out.printf("%d virtual nodes: %,d users in %d ms, spread %s%n",
+                virtualNodes, store.size(), loadNanos / 1_000_000, spread(store));
+
+            ShardedUserStore.Rebalance added = store.addNode("node-" + nodeCount);
+            out.printf("  add node:    moved %.1f%% (ideal %.1f%%) in %d ms, spread %s%n",
+                added.movedFraction() * 100, 100.0 / (nodeCount + 1), added.elapsed().toMillis(), spread(store));
+
+            ShardedUserStore.Rebalance removed = store.removeNode("node-0");
+            out.printf("  remove node: moved %.1f%% (ideal %.1f%%) in %d ms, spread %s%n",
+                removed.movedFraction() * 100, 100.0 / (nodeCount + 1), removed.elapsed().toMillis(), spread(store));
+
+            begin = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < users; i++) {
+                if (store.get("user" + i) != null) {
+                    found++;
+                }
+            }
+            out.printf("  %,d of %,d users found after rebalancing, %.0f ns/get%n",
+                found, users, (double) (System.nanoTime() - begin) / users);
+        }
+    }
+
+    /**
+     * Smallest and largest node load relative to the mean.
+     */
+    private static String spread(ShardedUserStore store) {
+        Map<String, Integer> load = store.loadByNode();
+        double mean = (double) store.size() / load.size();
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int users : load.values()) {
+            min = Math.min(min, users);
+            max = Math.max(max, users);
+        }
+        return String.format("min %.0f%% / max %.0f%% of mean", min / mean * 100, max / mean * 100);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.javaguide;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Crash-safe replacement of snapshot files.
+ *
+ * The new contents go to a temporary file next to the target, which is
+ * fsynced before it is renamed over the target; the directory is fsynced
+ * after the rename. Without the first fsync a crash can leave the rename on
+ * disk but not the data, i.e. an empty or partial snapshot where a complete
+ * old one used to be; without the second the rename itself can be lost.
+ */
+final class SnapshotFiles {
+
+    @FunctionalInterface
+    interface Contents {
+        void writeTo(DataOutputStream output) throws IOException;
+    }
+
+    private SnapshotFiles() {
+    }
+
+    static void replace(Path file, Contents contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            contents.writeTo(output);
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Makes new and renamed entries of the directory durable. Some platforms
+     * (Windows) cannot open a directory; there this does nothing.
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+}
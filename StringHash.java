@@ -0,0 +1,27 @@
+package com.example.javaguide;
+
+/**
+ * 64-bit string hash shared by the sketches and the consistent hash ring.
+ *
+ * String.hashCode has only 32 bits: with millions of keys, two of them would
+ * often share every counter of a sketch or collide on the ring.
+ */
+final class StringHash {
+
+    private StringHash() {
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, finished with the SplitMix64 mixer
+     * so every input bit affects every output bit.
+     */
+    static long hash64(String value) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,169 @@
+package com.belajarjava;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.out;
+
+/**
+ * StripedCounter - counter lock-free dengan API yang sama seperti Counter
+ * (increment() dan getValue()).
+ *
+ * Nilai counter dipecah ke beberapa sel (stripe). Setiap thread mendapat sel
+ * sendiri, sehingga increment dari thread berbeda tidak saling berebut
+ * cache line yang sama. Nilai total didapat dengan menjumlahkan semua sel.
+ */
+class StripedCounter {
+    // Satu sel = 8 long = 64 byte, sehingga setiap sel menempati cache line sendiri
+    private static final int PADDING = 8;
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // Nomor urut thread, dibagikan secara round-robin ke setiap thread baru
+    private static final AtomicInteger NEXT_PROBE = new AtomicInteger();
+    private static final ThreadLocal<Integer> PROBE =
+        ThreadLocal.withInitial(NEXT_PROBE::getAndIncrement);
+
+    private final long[] cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedCounter(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism minimal 1");
+        }
+        // Jumlah stripe dibulatkan ke pangkat dua agar bisa memakai bit mask
+        int stripes = parallelism == 1 ? 1 : Integer.highestOneBit(parallelism - 1) << 1;
+        this.mask = stripes - 1;
+        // Ditambah satu sel kosong di awal dan akhir sebagai padding
+        this.cells = new long[(stripes + 2) * PADDING];
+    }
+
+    // Lock-free: setiap thread hanya menyentuh selnya sendiri
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        CELLS.getAndAdd(cells, slot(), delta);
+    }
+
+    /**
+     * Nilai tepat (exact): setiap sel dibaca secara volatile sehingga semua
+     * increment yang sudah selesai (misalnya setelah join()) pasti terhitung.
+     */
+    public long sum() {
+        long total = 0;
+        for (int i = PADDING; i < cells.length - PADDING; i += PADDING) {
+            total += (long) CELLS.getVolatile(cells, i);
+        }
+        return total;
+    }
+
+    /**
+     * Nilai perkiraan (approximate): dibaca tanpa memory barrier, lebih murah
+     * tetapi bisa tertinggal dari increment yang sedang berjalan.
+     * Cocok untuk monitoring atau progress report.
+     */
+    public long sumApproximate() {
+        long total = 0;
+        for (int i = PADDING; i < cells.length - PADDING; i += PADDING) {
+            total += (long) CELLS.getOpaque(cells, i);
+        }
+        return total;
+    }
+
+    // Sama seperti Counter.getValue()
+    public int getValue() {
+        return (int) sum();
+    }
+
+    public int getStripeCount() {
+        return mask + 1;
+    }
+
+    private int slot() {
+        return ((PROBE.get() & mask) + 1) * PADDING;
+    }
+}
+
+/**
+ * CounterBenchmark - membandingkan Counter (synchronized) dengan StripedCounter
+ * untuk 1 sampai N thread.
+ *
+ * Jalankan: java com.belajarjava.CounterBenchmark [maxThreads] [incrementPerThread]
+ */
+class CounterBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0
+            ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+        // Pemanasan agar JIT sudah mengompilasi kedua implementasi
+        for (int i = 0; i < 3; i++) {
+            runSynchronized(maxThreads, perThread / 10);
+            runStriped(maxThreads, perThread / 10);
+        }
+
+        out.printf("%-8s %18s %18s %8s%n", "Threads", "synchronized ops/s", "striped ops/s", "Speedup");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            double syncOps = runSynchronized(threads, perThread);
+            double stripedOps = runStriped(threads, perThread);
+            out.printf("%-8d %,18.0f %,18.0f %7.1fx%n",
+                threads, syncOps, stripedOps, stripedOps / syncOps);
+        }
+    }
+
+    private static double runSynchronized(int threads, int perThread) throws InterruptedException {
+        Counter counter = new Counter();
+        long nanos = runThreads(threads, perThread, counter::increment);
+        check(counter.getValue(), (long) threads * perThread);
+        return (double) threads * perThread * 1e9 / nanos;
+    }
+
+    private static double runStriped(int threads, int perThread) throws InterruptedException {
+        StripedCounter counter = new StripedCounter(threads);
+        long nanos = runThreads(threads, perThread, counter::increment);
+        check(counter.sum(), (long) threads * perThread);
+        return (double) threads * perThread * 1e9 / nanos;
+    }
+
+    private static long runThreads(int threads, int perThread, Runnable increment)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    increment.run();
+                }
+            }, "Bench-" + t);
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static void check(long actual, long expected) {
+        if (actual != expected) {
+            throw new IllegalStateException("Hasil salah: " + actual + ", seharusnya " + expected);
+        }
+    }
+}
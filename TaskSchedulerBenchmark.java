@@ -0,0 +1,72 @@
+package com.example.javaguide;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+
+/**
+ * Measures TaskScheduler throughput and per-priority queue latency with many
+ * concurrent producers feeding a pool of workers.
+ *
+ * Usage: java com.example.javaguide.TaskSchedulerBenchmark [producers] [workers] [tasksPerProducer]
+ */
+class TaskSchedulerBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int workers = args.length > 1
+            ? Integer.parseInt(args[1])
+            : Runtime.getRuntime().availableProcessors();
+        int tasksPerProducer = args.length > 2 ? Integer.parseInt(args[2]) : 250_000;
+
+        TaskScheduler scheduler = new TaskScheduler();
+        scheduler.start(workers);
+
+        TaskPriority[] priorities = TaskPriority.values();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < tasksPerProducer; i++) {
+                    // Mixed workload: half HIGH, a third MEDIUM, the rest LOW
+                    int bucket = i % 6;
+                    TaskPriority priority = bucket < 3 ? priorities[0] : bucket < 5 ? priorities[1] : priorities[2];
+                    scheduler.scheduleTask("bench", priority, TaskSchedulerBenchmark::work);
+                }
+            }, "producer-" + p);
+            threads[p].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - begin;
+
+        long total = (long) producers * tasksPerProducer;
+        out.printf("%d producers, %d workers, %,d tasks in %.1f ms (%,.0f tasks/sec)%n",
+            producers, workers, total, elapsed / 1e6, total * 1e9 / elapsed);
+        scheduler.printStatistics();
+    }
+
+    // A small amount of CPU work so the benchmark is not purely queue overhead
+    private static void work() {
+        long x = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+        }
+        if (x == 42) {
+            out.println();
+        }
+    }
+}
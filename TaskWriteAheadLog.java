@@ -0,0 +1,520 @@
+package com.example.javaguide;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.lang.System.out;
+
+/**
+ * A segmented write-ahead log that makes TaskScheduler queues survive restarts.
+ *
+ * Every record is framed as [int length][int CRC32C][body], where the body is
+ * either SCHEDULED (id, priority, description) or COMPLETED (id). Appends go
+ * into an in-memory batch; the first thread that needs durability becomes the
+ * leader and writes and fsyncs the whole batch, so concurrent producers share
+ * one fsync (group commit).
+ *
+ * When the oldest segment holds no pending tasks it is deleted. When only a
+ * few are left, they are copied to the newest segment first, so the log stays
+ * proportional to the number of pending tasks.
+ */
+class TaskWriteAheadLog implements Closeable {
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    private static final byte SCHEDULED = 1;
+    private static final byte COMPLETED = 2;
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    // Compact the oldest segment once no more than this share of its tasks is still pending
+    private static final double COMPACTION_LIVE_RATIO = 0.25;
+    private static final String SEGMENT_PREFIX = "tasks-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchFlushed = lock.newCondition();
+    private final CRC32C checksum = new CRC32C();
+
+    // All fields below are guarded by lock
+    private final Map<Long, PendingTask> pending = new HashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final List<PendingTask> recovered;
+    private ByteBuffer batch = ByteBuffer.allocateDirect(1 << 20);
+    private ByteBuffer spareBatch = ByteBuffer.allocateDirect(1 << 20);
+    private Segment current;
+    private FileChannel channel;
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean flushing;
+    private IOException failure;
+    private long nextTaskId = 1;
+    private boolean compacting;
+    private boolean closed;
+
+    /**
+     * A task that was scheduled but not yet marked completed.
+     */
+    record PendingTask(long id, TaskPriority priority, String description, Segment segment) {}
+
+    private TaskWriteAheadLog(Path directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(directory);
+        this.recovered = replay();
+    }
+
+    public static TaskWriteAheadLog open(Path directory) throws IOException {
+        return new TaskWriteAheadLog(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public static TaskWriteAheadLog open(Path directory, long maxSegmentBytes) throws IOException {
+        if (maxSegmentBytes < MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Segments must hold at least " + MAX_RECORD_BYTES + " bytes");
+        }
+        return new TaskWriteAheadLog(directory, maxSegmentBytes);
+    }
+
+    /**
+     * Tasks found pending when the log was opened, in the order they were scheduled.
+     */
+    public List<PendingTask> recoveredTasks() {
+        return recovered;
+    }
+
+    public int pendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int segmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs a newly scheduled task and waits until it is on disk.
+     *
+     * @return the id to pass to markCompleted once the task has run
+     */
+    public long appendScheduled(TaskPriority priority, String description) {
+        return appendScheduled(priority, description, true);
+    }
+
+    /**
+     * Logs a newly scheduled task; with sync set to false the record is only
+     * guaranteed durable after a later sync() or durable append.
+     */
+    public long appendScheduled(TaskPriority priority, String description, boolean sync) {
+        byte[] text = description.getBytes(StandardCharsets.UTF_8);
+        if (text.length + 10 + HEADER_BYTES > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Task description too long: " + text.length + " bytes");
+        }
+        lock.lock();
+        try {
+            long id = nextTaskId++;
+            long seq = appendScheduledLocked(id, priority, text);
+            pending.put(id, new PendingTask(id, priority, description, current));
+            current.liveIds.add(id);
+            current.scheduled++;
+            if (sync) {
+                awaitDurableLocked(seq);
+            }
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a task as done. This does not wait for the disk: after a crash a
+     * task may run again, but it is never lost.
+     */
+    public void markCompleted(long id) {
+        lock.lock();
+        try {
+            if (closed) {
+                // Nothing more is recorded; as after a crash, the task runs again after a restart
+                return;
+            }
+            PendingTask task = pending.remove(id);
+            if (task == null) {
+                return;
+            }
+            task.segment().liveIds.remove(id);
+            ensureSpaceLocked(HEADER_BYTES + 9);
+            putRecord(COMPLETED, id, null, null);
+            compactLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is on disk.
+     */
+    public void sync() {
+        lock.lock();
+        try {
+            awaitDurableLocked(appendedSeq);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            awaitDurableLocked(appendedSeq);
+            closed = true;
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long appendScheduledLocked(long id, TaskPriority priority, byte[] text) {
+        ensureSpaceLocked(HEADER_BYTES + 10 + text.length);
+        putRecord(SCHEDULED, id, priority, text);
+        return appendedSeq;
+    }
+
+    /**
+     * Makes room for one record in the batch, rolling to a new segment first
+     * if the record would not fit in the current one.
+     */
+    private void ensureSpaceLocked(int recordBytes) {
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            if (current.assignedBytes > 0 && current.assignedBytes + recordBytes > maxSegmentBytes) {
+                // Only roll once every byte of the current segment has been written
+                awaitDurableLocked(appendedSeq);
+                if (!flushing && current.assignedBytes + recordBytes > maxSegmentBytes) {
+                    rollLocked();
+                }
+                continue;
+            }
+            if (batch.remaining() < recordBytes) {
+                if (!flushing) {
+                    flushBatchLocked();
+                } else {
+                    batchFlushed.awaitUninterruptibly();
+                }
+                continue;
+            }
+            current.assignedBytes += recordBytes;
+            return;
+        }
+    }
+
+    private void putRecord(byte type, long id, TaskPriority priority, byte[] text) {
+        int start = batch.position();
+        int bodyLength = priority == null ? 9 : 10 + text.length;
+        batch.putInt(bodyLength).putInt(0).put(type).putLong(id);
+        if (priority != null) {
+            batch.put((byte) priority.ordinal()).put(text);
+        }
+        checksum.reset();
+        checksum.update(batch.duplicate().position(start + HEADER_BYTES).limit(start + HEADER_BYTES + bodyLength));
+        batch.putInt(start + 4, (int) checksum.getValue());
+        appendedSeq++;
+    }
+
+    private void awaitDurableLocked(long seq) {
+        while (durableSeq < seq) {
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log failed", failure);
+            }
+            if (!flushing) {
+                flushBatchLocked();
+            } else {
+                batchFlushed.awaitUninterruptibly();
+            }
+        }
+    }
+
+    /**
+     * Writes and fsyncs the current batch as the group-commit leader. The lock
+     * is released during the I/O so other threads can keep filling the next batch.
+     */
+    private void flushBatchLocked() {
+        flushing = true;
+        ByteBuffer toWrite = batch;
+        batch = spareBatch;
+        long upTo = appendedSeq;
+        FileChannel target = channel;
+        IOException error = null;
+        lock.unlock();
+        try {
+            toWrite.flip();
+            while (toWrite.hasRemaining()) {
+                target.write(toWrite);
+            }
+            target.force(false);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            toWrite.clear();
+            spareBatch = toWrite;
+            flushing = false;
+            if (error == null) {
+                durableSeq = upTo;
+            } else {
+                failure = error;
+            }
+            batchFlushed.signalAll();
+        }
+    }
+
+    private void rollLocked() {
+        try {
+            channel.close();
+            openSegmentLocked(current.number + 1);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Could not roll write-ahead log segment", e);
+        }
+    }
+
+    private void openSegmentLocked(long number) throws IOException {
+        Segment segment = new Segment(number, directory.resolve(segmentName(number)));
+        channel = FileChannel.open(segment.path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segments.put(number, segment);
+        current = segment;
+    }
+
+    /**
+     * Deletes old segments without pending tasks, and moves the remaining tasks
+     * of a mostly completed oldest segment to the newest one.
+     */
+    private void compactLocked() {
+        // Copying tasks forward can release the lock while flushing; never run twice at once
+        if (compacting) {
+            return;
+        }
+        compacting = true;
+        try {
+            compactOldestLocked();
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void compactOldestLocked() {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == current) {
+                return;
+            }
+            if (!oldest.liveIds.isEmpty()) {
+                if (oldest.liveIds.size() > oldest.scheduled * COMPACTION_LIVE_RATIO) {
+                    return;
+                }
+                long lastSeq = 0;
+                for (Long id : new ArrayList<>(oldest.liveIds)) {
+                    PendingTask task = pending.get(id);
+                    if (task == null || task.segment() != oldest) {
+                        continue;
+                    }
+                    lastSeq = appendScheduledLocked(id, task.priority(),
+                        task.description().getBytes(StandardCharsets.UTF_8));
+                    pending.put(id, new PendingTask(id, task.priority(), task.description(), current));
+                    current.liveIds.add(id);
+                    current.scheduled++;
+                }
+                oldest.liveIds.clear();
+                awaitDurableLocked(lastSeq);
+            }
+            segments.remove(oldest.number);
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                out.println("Could not delete segment " + oldest.path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the pending task set by reading every segment sequentially
+     * through a memory mapping. A torn record at the end of a segment (from a
+     * crash during a write) ends that segment and is cut off.
+     */
+    private List<PendingTask> replay() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                    files.put(Long.parseLong(number), path);
+                }
+            });
+        }
+
+        long lastSegment = 0;
+        for (Map.Entry<Long, Path> file : files.entrySet()) {
+            Segment segment = new Segment(file.getKey(), file.getValue());
+            segments.put(segment.number, segment);
+            replaySegment(segment);
+            lastSegment = segment.number;
+        }
+
+        // Drop the oldest segments while they hold no pending tasks, then start a fresh one.
+        // An empty segment after a kept one stays: it may hold the COMPLETED records of
+        // tasks scheduled in an older segment, and without them those tasks would run again.
+        while (!segments.isEmpty() && segments.firstEntry().getValue().liveIds.isEmpty()) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            Files.deleteIfExists(segment.path);
+        }
+        openSegmentLocked(lastSegment + 1);
+
+        List<PendingTask> tasks = new ArrayList<>(pending.values());
+        tasks.sort((a, b) -> Long.compare(a.id(), b.id()));
+        return List.copyOf(tasks);
+    }
+
+    private void replaySegment(Segment segment) throws IOException {
+        TaskPriority[] priorities = TaskPriority.values();
+        try (FileChannel file = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = file.size();
+            if (size == 0) {
+                return;
+            }
+            MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32C crc = new CRC32C();
+            byte[] text = new byte[256];
+            int position = 0;
+            while (position + HEADER_BYTES <= size) {
+                int length = data.getInt(position);
+                int expected = data.getInt(position + 4);
+                int body = position + HEADER_BYTES;
+                if (length < 9 || length > MAX_RECORD_BYTES || body + length > size) {
+                    break;
+                }
+                crc.reset();
+                crc.update(data.duplicate().position(body).limit(body + length));
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+
+                byte type = data.get(body);
+                long id = data.getLong(body + 1);
+                if (type == SCHEDULED) {
+                    int textLength = length - 10;
+                    if (text.length < textLength) {
+                        text = new byte[textLength];
+                    }
+                    data.get(body + 10, text, 0, textLength);
+                    PendingTask task = new PendingTask(id, priorities[data.get(body + 9)],
+                        new String(text, 0, textLength, StandardCharsets.UTF_8), segment);
+                    PendingTask previous = pending.put(id, task);
+                    if (previous == null) {
+                        segment.scheduled++;
+                    } else {
+                        // Copied forward by compaction: the newest copy wins
+                        previous.segment().liveIds.remove(id);
+                    }
+                    segment.liveIds.add(id);
+                } else if (type == COMPLETED) {
+                    PendingTask task = pending.remove(id);
+                    if (task != null) {
+                        task.segment().liveIds.remove(id);
+                    }
+                }
+                nextTaskId = Math.max(nextTaskId, id + 1);
+                position = body + length;
+            }
+            if (position < size) {
+                out.println("Truncating torn write-ahead log tail in " + segment.path + " at byte " + position);
+                file.truncate(position);
+            }
+        }
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * One log file and the ids of the still pending tasks scheduled in it.
+     */
+    static final class Segment {
+        private final long number;
+        private final Path path;
+        private final Set<Long> liveIds = new HashSet<>();
+        private int scheduled;
+        private long assignedBytes;
+
+        private Segment(long number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+    }
+}
+
+/**
+ * Measures how long a TaskWriteAheadLog takes to recover a large number of
+ * pending tasks.
+ *
+ * Usage: java com.example.javaguide.TaskWalRecoveryBenchmark [directory] [tasks]
+ */
+class TaskWalRecoveryBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Path directory = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("task-wal");
+        int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        TaskPriority[] priorities = TaskPriority.values();
+
+        long begin = System.nanoTime();
+        try (TaskWriteAheadLog log = TaskWriteAheadLog.open(directory)) {
+            for (int i = 0; i < tasks; i++) {
+                // Group the writes: one fsync for the whole load instead of one per task
+                log.appendScheduled(priorities[i % priorities.length], "Send reminder #" + i, false);
+            }
+            log.sync();
+        }
+        long written = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        try (TaskWriteAheadLog log = TaskWriteAheadLog.open(directory)) {
+            long recovered = System.nanoTime() - begin;
+            out.printf("Wrote %,d tasks in %.0f ms; recovered %,d pending tasks from %d segment(s) in %.0f ms%n",
+                tasks, written / 1e6, log.recoveredTasks().size(), log.segmentCount(), recovered / 1e6);
+        }
+    }
+}
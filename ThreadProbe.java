@@ -0,0 +1,20 @@
+package com.example.javaguide;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-thread number for picking a stripe, shared by the striped classes of
+ * this package. Every new thread gets the next number, so threads spread
+ * round-robin over the stripes, as in com.belajarjava.StripedCounter.
+ */
+final class ThreadProbe {
+    private static final AtomicInteger NEXT_PROBE = new AtomicInteger();
+    private static final ThreadLocal<Integer> PROBE = ThreadLocal.withInitial(NEXT_PROBE::getAndIncrement);
+
+    private ThreadProbe() {
+    }
+
+    static int get() {
+        return PROBE.get();
+    }
+}
@@ -0,0 +1,343 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel for delayed and recurring tasks.
+ *
+ * Level 0 has one bucket per tick; every level above covers wheelSize times
+ * the span of the level below. A timer is linked into the bucket matching its
+ * deadline, and buckets of higher levels are cascaded down when the lower
+ * level wraps around. Inserting and cancelling are O(1): callers only append
+ * to a lock-free queue, and the single wheel thread links or unlinks the
+ * entry in a doubly linked bucket list.
+ *
+ * Timers that expire in the same tick are handed to the expiry callback in
+ * TaskPriority order.
+ */
+class TimingWheel {
+    private static final int LEVELS = 4;
+
+    private final long tickNanos;
+    private final int wheelBits;
+    private final int wheelMask;
+    private final Bucket[][] buckets;
+    private final long maxSpanTicks;
+    private final Consumer<DelayedTask> onExpire;
+    private final long originNanos = System.nanoTime();
+
+    // Producers only touch these queues; everything else belongs to the wheel thread
+    private final Queue<DelayedTask> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final Queue<DelayedTask> pendingCancels = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread wheelThread;
+    private volatile boolean running = true;
+    private long currentTick;
+
+    /**
+     * @param tick      resolution of the wheel
+     * @param wheelSize buckets per level, rounded up to a power of two
+     * @param onExpire  called on the wheel thread for every expired timer
+     */
+    public TimingWheel(long tick, TimeUnit unit, int wheelSize, Consumer<DelayedTask> onExpire) {
+        if (tick <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("Tick must be positive and wheel size at least 2");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.wheelMask = (1 << wheelBits) - 1;
+        this.maxSpanTicks = wheelBits * LEVELS >= 62 ? Long.MAX_VALUE : 1L << (wheelBits * LEVELS);
+        this.onExpire = onExpire;
+        this.buckets = new Bucket[LEVELS][1 << wheelBits];
+        for (Bucket[] level : buckets) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.wheelThread = new Thread(this::run, "timing-wheel");
+        this.wheelThread.setDaemon(true);
+        this.wheelThread.start();
+    }
+
+    /**
+     * Schedules a one-shot timer.
+     */
+    public DelayedTask schedule(String description, TaskPriority priority, Runnable action, long delayNanos) {
+        return add(new DelayedTask(this, description, priority, action, deadlineTick(delayNanos), 0));
+    }
+
+    /**
+     * Schedules a timer that fires every period, measured from the first deadline
+     * rather than from when the previous run finished.
+     */
+    public DelayedTask scheduleAtFixedRate(String description, TaskPriority priority, Runnable action,
+                                           long initialDelayNanos, long periodNanos) {
+        long periodTicks = Math.max(1, (periodNanos + tickNanos - 1) / tickNanos);
+        return add(new DelayedTask(this, description, priority, action, deadlineTick(initialDelayNanos), periodTicks));
+    }
+
+    /**
+     * Number of timers waiting to expire, including ones not yet linked into the wheel.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(wheelThread);
+    }
+
+    private DelayedTask add(DelayedTask task) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel is stopped");
+        }
+        size.incrementAndGet();
+        pendingAdds.offer(task);
+        LockSupport.unpark(wheelThread);
+        return task;
+    }
+
+    void cancel(DelayedTask task) {
+        // A stopped wheel fires nothing and never drains the queue again
+        if (running) {
+            pendingCancels.offer(task);
+            if (!running) {
+                pendingCancels.clear();
+            }
+        }
+    }
+
+    private long deadlineTick(long delayNanos) {
+        long now = (System.nanoTime() - originNanos) / tickNanos;
+        // Round up so a timer never fires before its delay has passed
+        return now + Math.max(1, (Math.max(0, delayNanos) + tickNanos - 1) / tickNanos);
+    }
+
+    private void run() {
+        while (running) {
+            drainPending();
+            long nowTick = (System.nanoTime() - originNanos) / tickNanos;
+            if (size.get() == 0 && pendingAdds.isEmpty()) {
+                // Nothing to wait for: jump ahead and sleep until a timer is added
+                currentTick = Math.max(currentTick, nowTick);
+                LockSupport.park(this);
+                continue;
+            }
+            while (currentTick < nowTick) {
+                advance();
+            }
+            long nextTickNanos = originNanos + (currentTick + 1) * tickNanos;
+            LockSupport.parkNanos(this, nextTickNanos - System.nanoTime());
+        }
+        pendingAdds.clear();
+        pendingCancels.clear();
+    }
+
+    private void drainPending() {
+        DelayedTask task;
+        while ((task = pendingAdds.poll()) != null) {
+            if (task.isCancelled()) {
+                size.decrementAndGet();
+            } else {
+                place(task, currentTick + 1);
+            }
+        }
+        while ((task = pendingCancels.poll()) != null) {
+            if (task.bucket != null) {
+                task.bucket.unlink(task);
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    private void advance() {
+        currentTick++;
+        // Cascade every level whose lower levels just wrapped around
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = wheelBits * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                break;
+            }
+            Bucket bucket = buckets[level][(int) ((currentTick >>> shift) & wheelMask)];
+            for (DelayedTask task = bucket.takeAll(); task != null; ) {
+                DelayedTask next = task.next;
+                task.next = null;
+                // The current bucket fires right after the cascade, so timers due now can go there
+                place(task, currentTick);
+                task = next;
+            }
+        }
+        fire(buckets[0][(int) (currentTick & wheelMask)]);
+    }
+
+    /**
+     * Links a timer into the bucket of its deadline, or of earliestTick if the
+     * deadline is before it. The deadline itself is left alone, so a recurring
+     * timer that runs late keeps its schedule.
+     */
+    private void place(DelayedTask task, long earliestTick) {
+        // Already due, for example added while the wheel was catching up
+        long due = Math.max(task.deadlineTick, earliestTick);
+        // Timers beyond the top level are parked at its far end and re-placed on cascade
+        long placement = due - currentTick >= maxSpanTicks ? currentTick + maxSpanTicks - 1 : due;
+        int level = 0;
+        while (level < LEVELS - 1 && placement - currentTick >= 1L << (wheelBits * (level + 1))) {
+            level++;
+        }
+        buckets[level][(int) ((placement >>> (wheelBits * level)) & wheelMask)].link(task);
+    }
+
+    private void fire(Bucket bucket) {
+        DelayedTask head = bucket.takeAll();
+        if (head == null) {
+            return;
+        }
+        // Hand expired timers over in priority order
+        List<DelayedTask> expired = new ArrayList<>();
+        for (DelayedTask task = head; task != null; task = task.next) {
+            expired.add(task);
+        }
+        expired.sort((a, b) -> Integer.compare(a.priority.getLevel(), b.priority.getLevel()));
+        for (DelayedTask task : expired) {
+            task.next = null;
+            size.decrementAndGet();
+            // One-shot timers move to FIRED before running, so a later cancel() reports false
+            if (task.isCancelled() || (task.periodTicks == 0 && !task.markFired())) {
+                continue;
+            }
+            try {
+                onExpire.accept(task);
+            } catch (RuntimeException e) {
+                System.out.println("Timer callback failed: " + task.description + " (" + e.getMessage() + ")");
+            }
+            if (task.periodTicks > 0 && !task.isCancelled() && running) {
+                task.deadlineTick += task.periodTicks;
+                size.incrementAndGet();
+                place(task, currentTick + 1);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of timers; only ever touched by the wheel thread.
+     */
+    static final class Bucket {
+        private DelayedTask head;
+
+        void link(DelayedTask task) {
+            task.bucket = this;
+            task.prev = null;
+            task.next = head;
+            if (head != null) {
+                head.prev = task;
+            }
+            head = task;
+        }
+
+        void unlink(DelayedTask task) {
+            if (task.prev != null) {
+                task.prev.next = task.next;
+            } else {
+                head = task.next;
+            }
+            if (task.next != null) {
+                task.next.prev = task.prev;
+            }
+            task.prev = null;
+            task.next = null;
+            task.bucket = null;
+        }
+
+        DelayedTask takeAll() {
+            DelayedTask all = head;
+            head = null;
+            for (DelayedTask task = all; task != null; task = task.next) {
+                task.bucket = null;
+                task.prev = null;
+            }
+            return all;
+        }
+    }
+}
+
+/**
+ * Handle for a timer scheduled on a TimingWheel.
+ */
+class DelayedTask {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int FIRED = 2;
+
+    final String description;
+    final TaskPriority priority;
+    final Runnable action;
+    final long periodTicks;
+    long deadlineTick;
+
+    // Wheel bookkeeping, owned by the wheel thread
+    DelayedTask prev;
+    DelayedTask next;
+    TimingWheel.Bucket bucket;
+
+    private final TimingWheel wheel;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    DelayedTask(TimingWheel wheel, String description, TaskPriority priority, Runnable action,
+                long deadlineTick, long periodTicks) {
+        this.wheel = wheel;
+        this.description = description;
+        this.priority = priority;
+        this.action = action;
+        this.deadlineTick = deadlineTick;
+        this.periodTicks = periodTicks;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public TaskPriority getPriority() {
+        return priority;
+    }
+
+    public boolean isPeriodic() {
+        return periodTicks > 0;
+    }
+
+    /**
+     * Cancels the timer. For a recurring timer this stops all future runs.
+     *
+     * @return true if this call cancelled the timer; false if it was already
+     *         cancelled or, for a one-shot timer, has already fired
+     */
+    public boolean cancel() {
+        if (state.compareAndSet(PENDING, CANCELLED)) {
+            wheel.cancel(this);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    public boolean hasFired() {
+        return state.get() == FIRED;
+    }
+
+    /**
+     * Claims a one-shot timer for running; fails if it was cancelled first.
+     */
+    boolean markFired() {
+        return state.compareAndSet(PENDING, FIRED);
+    }
+}
@@ -0,0 +1,237 @@
+package com.belajarjava;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.lang.System.out;
+
+/**
+ * TransferService - memindahkan dana antar BankAccount secara atomik.
+ *
+ * Setiap rekening dipetakan ke salah satu lock (striped locking). Sebuah
+ * transfer selalu mengunci stripe dengan nomor yang lebih kecil terlebih
+ * dahulu, sehingga dua transfer A->B dan B->A tidak mungkin saling menunggu
+ * (deadlock). Selama kedua lock dipegang, penarikan dan setoran terjadi
+ * bersama: jika saldo tidak cukup, tidak ada rekening yang berubah.
+ */
+class TransferService {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * Sebuah permintaan transfer dalam batch.
+     */
+    record Transfer(BankAccount from, BankAccount to, double amount) {}
+
+    /**
+     * Hasil batch: jumlah transfer yang berhasil dan indeks yang gagal.
+     */
+    record BatchResult(int succeeded, List<Integer> failedIndexes) {}
+
+    public TransferService() {
+        this(1024);
+    }
+
+    public TransferService(int stripeCount) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("Jumlah stripe minimal 1");
+        }
+        int size = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Memindahkan amount dari rekening from ke rekening to.
+     *
+     * @throws InsufficientFundsException jika saldo from tidak cukup; kedua rekening tidak berubah
+     */
+    public void transfer(BankAccount from, BankAccount to, double amount) throws InsufficientFundsException {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Jumlah transfer harus positif: " + amount);
+        }
+        if (from == to) {
+            throw new IllegalArgumentException("Rekening asal dan tujuan sama");
+        }
+        int first = stripeOf(from);
+        int second = stripeOf(to);
+        if (first > second) {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+        // Urutan penguncian selalu dari stripe kecil ke besar
+        stripes[first].lock();
+        try {
+            if (second != first) {
+                stripes[second].lock();
+            }
+            try {
+                moveLocked(from, to, amount);
+            } finally {
+                if (second != first) {
+                    stripes[second].unlock();
+                }
+            }
+        } finally {
+            stripes[first].unlock();
+        }
+    }
+
+    /**
+     * Menjalankan ribuan transfer dalam satu panggilan. Setiap transfer tetap
+     * atomik; transfer yang gagal karena saldo kurang dicatat dan batch
+     * dilanjutkan.
+     */
+    public BatchResult transferAll(List<Transfer> transfers) {
+        int succeeded = 0;
+        List<Integer> failed = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            try {
+                transfer(transfer.from(), transfer.to(), transfer.amount());
+                succeeded++;
+            } catch (InsufficientFundsException e) {
+                failed.add(i);
+            }
+        }
+        return new BatchResult(succeeded, failed.isEmpty() ? Collections.emptyList() : failed);
+    }
+
+    /**
+     * Membaca saldo di bawah lock rekening tersebut, sehingga tidak pernah
+     * terlihat dana yang sedang "di tengah jalan".
+     */
+    public double getBalance(BankAccount account) {
+        ReentrantLock lock = stripes[stripeOf(account)];
+        lock.lock();
+        try {
+            return account.getBalance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void moveLocked(BankAccount from, BankAccount to, double amount) throws InsufficientFundsException {
+        if (!from.withdraw(amount)) {
+            throw new InsufficientFundsException("Saldo tidak mencukupi. Saldo: " + from.getBalance()
+                + ", Jumlah: " + amount);
+        }
+        try {
+            to.deposit(amount);
+        } catch (RuntimeException e) {
+            // Setoran gagal (misalnya overflow): kembalikan dana ke rekening asal
+            from.deposit(amount);
+            throw e;
+        }
+    }
+
+    private int stripeOf(BankAccount account) {
+        int h = System.identityHashCode(account);
+        // Sebar bit agar hash yang berdekatan tidak jatuh ke stripe yang sama
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+}
+
+/**
+ * TransferBenchmark - mengukur transfer/detik pada beban yang miring:
+ * sebagian besar transfer menyentuh beberapa rekening "panas".
+ *
+ * Jalankan: java com.belajarjava.TransferBenchmark [threads] [rekening] [persenPanas]
+ */
+class TransferBenchmark {
+    private static final int BATCH_SIZE = 2_000;
+    private static final int BATCHES_PER_THREAD = 250;
+    private static final int HOT_ACCOUNTS = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int accountCount = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int hotPercent = args.length > 2 ? Integer.parseInt(args[2]) : 80;
+
+        ConcurrentSavingsAccount[] accounts = new ConcurrentSavingsAccount[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accounts[i] = new ConcurrentSavingsAccount("ACC-" + i, "Nasabah " + i, 10_000);
+        }
+        long totalBefore = totalMinor(accounts);
+
+        TransferService service = new TransferService();
+        LongAdder succeeded = new LongAdder();
+        LongAdder failed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                List<TransferService.Transfer> batch = new ArrayList<>(BATCH_SIZE);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int b = 0; b < BATCHES_PER_THREAD; b++) {
+                    batch.clear();
+                    while (batch.size() < BATCH_SIZE) {
+                        int from = pick(random, accountCount, hotPercent);
+                        int to = pick(random, accountCount, hotPercent);
+                        if (from != to) {
+                            double amount = (1 + random.nextInt(50)) / 100.0;
+                            batch.add(new TransferService.Transfer(accounts[from], accounts[to], amount));
+                        }
+                    }
+                    TransferService.BatchResult result = service.transferAll(batch);
+                    succeeded.add(result.succeeded());
+                    failed.add(result.failedIndexes().size());
+                }
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+
+        long total = succeeded.sum() + failed.sum();
+        out.printf("%d thread, %,d rekening, %d%% transfer ke/dari %d rekening panas%n",
+            threads, accountCount, hotPercent, HOT_ACCOUNTS);
+        out.printf("%,d transfer (%,d gagal karena saldo) dalam %.0f ms: %,.0f transfer/detik%n",
+            total, failed.sum(), nanos / 1e6, total * 1e9 / nanos);
+
+        // Total uang di semua rekening tidak boleh berubah
+        long totalAfter = totalMinor(accounts);
+        if (totalAfter != totalBefore) {
+            throw new IllegalStateException("Total saldo berubah: " + totalBefore + " -> " + totalAfter);
+        }
+        out.println("Total saldo tetap: " + totalAfter + " sen");
+    }
+
+    private static int pick(SplittableRandom random, int accountCount, int hotPercent) {
+        return random.nextInt(100) < hotPercent
+            ? random.nextInt(HOT_ACCOUNTS)
+            : random.nextInt(accountCount);
+    }
+
+    private static long totalMinor(ConcurrentSavingsAccount[] accounts) {
+        long total = 0;
+        for (ConcurrentSavingsAccount account : accounts) {
+            total += account.getBalanceMinor();
+        }
+        return total;
+    }
+}
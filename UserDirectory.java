@@ -0,0 +1,234 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import static java.lang.System.out;
+
+/**
+ * Users indexed by username and by email address.
+ *
+ * Exact lookups go through a ConcurrentHashMap keyed by username. The same
+ * users are also kept in a ConcurrentSkipListMap, which keeps the usernames
+ * sorted, so a prefix search is a range scan from the prefix up to the prefix
+ * followed by the largest char; it is not used for exact lookups because a
+ * search through millions of keys touches dozens of strings. Emails, compared
+ * case-insensitively, live in a third ConcurrentHashMap pointing at the same
+ * User objects. Readers never lock: all three maps allow lock-free gets and
+ * weakly consistent iteration.
+ *
+ * Writers take one lock so the indexes are changed together and an email
+ * cannot be claimed by two users at once. Each index is updated in an order
+ * that never hides a user that exists: on an email change the new address is
+ * indexed before the old one is removed, so a reader may briefly find the
+ * user under both, but never under neither.
+ */
+class UserDirectory {
+    private final ConcurrentHashMap<String, User> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, User> sorted = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, User> byEmail = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Adds a user.
+     *
+     * @return false if the username or the email is already taken
+     */
+    public boolean add(String username, User user) {
+        validate(username, user);
+        String email = normalize(user.getEmail());
+        writeLock.lock();
+        try {
+            if (byUsername.containsKey(username) || byEmail.containsKey(email)) {
+                return false;
+            }
+            byEmail.put(email, user);
+            byUsername.put(username, user);
+            sorted.put(username, user);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces an existing user, moving the email index entry if the address changed.
+     *
+     * @return false if there is no such user or the new email belongs to someone else
+     */
+    public boolean update(String username, User user) {
+        validate(username, user);
+        String email = normalize(user.getEmail());
+        writeLock.lock();
+        try {
+            User old = byUsername.get(username);
+            if (old == null) {
+                return false;
+            }
+            String oldEmail = normalize(old.getEmail());
+            User owner = byEmail.get(email);
+            if (owner != null && owner != old) {
+                return false;
+            }
+            byEmail.put(email, user);
+            byUsername.put(username, user);
+            sorted.put(username, user);
+            if (!oldEmail.equals(email)) {
+                byEmail.remove(oldEmail);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the removed user, or null if there was none
+     */
+    public User remove(String username) {
+        writeLock.lock();
+        try {
+            User removed = byUsername.remove(username);
+            if (removed != null) {
+                sorted.remove(username);
+                byEmail.remove(normalize(removed.getEmail()), removed);
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public User get(String username) {
+        return byUsername.get(username);
+    }
+
+    public boolean contains(String username) {
+        return byUsername.containsKey(username);
+    }
+
+    public User findByEmail(String email) {
+        return byEmail.get(normalize(email));
+    }
+
+    /**
+     * Usernames starting with the prefix, in sorted order, for autocomplete.
+     *
+     * @param limit maximum number of usernames returned
+     */
+    public List<String> complete(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        for (String username : withPrefix(prefix).keySet()) {
+            if (matches.size() == limit) {
+                break;
+            }
+            matches.add(username);
+        }
+        return matches;
+    }
+
+    /**
+     * A live, sorted view of the users whose username starts with the prefix.
+     */
+    public Map<String, User> withPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return sorted;
+        }
+        return sorted.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    public void forEach(BiConsumer<String, User> action) {
+        sorted.forEach(action);
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    private static void validate(String username, User user) {
+        if (username == null || username.isEmpty() || user == null || user.getEmail() == null) {
+            throw new IllegalArgumentException("Username, user and email are required");
+        }
+    }
+
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
+
+/**
+ * Fills a directory with generated users and reports the heap used per user
+ * for the indexes alone and including the User objects, then times exact,
+ * email and prefix lookups.
+ *
+ * Usage: java com.example.javaguide.UserDirectoryBenchmark [users] [lookups]
+ */
+class UserDirectoryBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+        long empty = BenchmarkMemory.usedMemory();
+        String[] usernames = new String[count];
+        User[] users = new User[count];
+        for (int i = 0; i < count; i++) {
+            usernames[i] = "user" + i;
+            users[i] = new User("User " + i, "user" + i + "@example.com");
+        }
+        long withUsers = BenchmarkMemory.usedMemory();
+
+        long begin = System.nanoTime();
+        UserDirectory directory = new UserDirectory();
+        for (int i = 0; i < count; i++) {
+            directory.add(usernames[i], users[i]);
+        }
+        long loadNanos = System.nanoTime() - begin;
+        long indexed = BenchmarkMemory.usedMemory();
+        out.printf("%,d users loaded in %d ms: indexes %d B/user, %d B/user including usernames and User objects%n",
+            directory.size(), loadNanos / 1_000_000,
+            (indexed - withUsers) / count, (indexed - empty) / count);
+
+        for (int round = 1; round <= 3; round++) {
+            int found = 0;
+            begin = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (directory.get(usernames[(int) ((i * 2654435761L) % count)]) != null) {
+                    found++;
+                }
+            }
+            long getNanos = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (directory.findByEmail(users[(int) ((i * 2654435761L) % count)].getEmail()) != null) {
+                    found++;
+                }
+            }
+            long emailNanos = System.nanoTime() - begin;
+
+            int completions = 0;
+            int prefixes = lookups / 10;
+            begin = System.nanoTime();
+            for (int i = 0; i < prefixes; i++) {
+                // Prefixes like "user123" match a handful to thousands of names
+                String prefix = usernames[(int) ((i * 2654435761L) % count)];
+                completions += directory.complete(prefix.substring(0, Math.min(prefix.length(), 7)), 10).size();
+            }
+            long prefixNanos = System.nanoTime() - begin;
+
+            out.printf("Round %d: get %.0f ns, findByEmail %.0f ns, complete(10) %.0f ns (%,d found, %,d completions)%n",
+                round, (double) getNanos / lookups, (double) emailNanos / lookups,
+                (double) prefixNanos / prefixes, found, completions);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.javaguide;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BulkPricing loops written with the Vector API (jdk.incubator.vector),
+ * processing as many prices at once as the CPU's widest vectors hold.
+ *
+ * There is no vector integer division, so price * factor / 1,000,000 is
+ * estimated in double precision and then corrected with exact long
+ * arithmetic: the remainder is recomputed, the quotient fixed by one if the
+ * estimate was off, and HALF_EVEN rounding applied from the remainder. The
+ * estimate is only close enough while price * factor fits in 52 bits, so
+ * any group of prices larger than that, or negative, is handed to the scalar
+ * loop, which also handles the tail of the array.
+ *
+ * Compile and run with --add-modules jdk.incubator.vector; BulkPricing only
+ * uses this class when the module is present.
+ */
+final class VectorPricingKernel {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final long MAX_EXACT = (1L << 52) - 1;
+    private static final double TWO_52 = 0x1p52;
+    private static final long EXPONENT_2_52 = Double.doubleToRawLongBits(TWO_52);
+    private static final long MANTISSA = (1L << 52) - 1;
+
+    void apply(long[] prices, long factor, int keep, int sign, long[] result) {
+        long divisor = BulkPricing.DIVISOR;
+        double inverse = 1.0 / divisor;
+        long maxPrice = factor == 0 ? Long.MAX_VALUE : MAX_EXACT / factor;
+        int upper = LONGS.loopBound(prices.length);
+        int i = 0;
+        for (; i < upper; i += LONGS.length()) {
+            LongVector price = LongVector.fromArray(LONGS, prices, i);
+            if (price.compare(VectorOperators.LT, 0).or(price.compare(VectorOperators.GT, maxPrice)).anyTrue()) {
+                BulkPricing.applyScalar(prices, i, i + LONGS.length(), factor, keep, sign, result);
+                continue;
+            }
+            LongVector product = price.mul(factor);
+            // Exact long to double and back through the 2^52 exponent trick; the
+            // Vector API's own conversions are not compiled to vector instructions
+            DoubleVector estimate = product.or(EXPONENT_2_52).reinterpretAsDoubles().sub(TWO_52).mul(inverse);
+            LongVector quotient = estimate.add(TWO_52).reinterpretAsLongs().and(MANTISSA);
+            LongVector remainder = product.sub(quotient.mul(divisor));
+
+            // The estimate is at most one off: fix the quotient so 0 <= remainder < divisor
+            VectorMask<Long> under = remainder.compare(VectorOperators.LT, 0);
+            quotient = quotient.sub(1, under);
+            remainder = remainder.add(divisor, under);
+            VectorMask<Long> over = remainder.compare(VectorOperators.GE, divisor);
+            quotient = quotient.add(1, over);
+            remainder = remainder.sub(divisor, over);
+
+            // HALF_EVEN: round up above half, and at exactly half when the quotient is odd
+            LongVector twice = remainder.add(remainder);
+            VectorMask<Long> odd = quotient.and(1).compare(VectorOperators.NE, 0);
+            VectorMask<Long> roundUp = twice.compare(VectorOperators.GT, divisor)
+                .or(twice.compare(VectorOperators.EQ, divisor).and(odd));
+            quotient = quotient.add(1, roundUp);
+
+            LongVector total = keep == 0 ? LongVector.zero(LONGS) : price;
+            total = sign > 0 ? total.add(quotient) : total.sub(quotient);
+            total.intoArray(result, i);
+        }
+        BulkPricing.applyScalar(prices, i, prices.length, factor, keep, sign, result);
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.javaguide;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+import static java.lang.System.out;
+
+/**
+ * Product prices kept as immutable, versioned snapshots.
+ *
+ * Prices live in a long[] of minor units indexed by product id, separate from
+ * the Product objects. A bulk change, such as a sale over millions of
+ * products, is applied to a private copy of the current prices and then
+ * published with one volatile write, so a reader sees either all of the
+ * change or none of it. Readers pin() the current snapshot, use it for as
+ * long as they need a consistent view (a whole cart calculation, say) and
+ * close it; pinning is a CAS on the version's pin count, never a lock. Each
+ * pin gets its own handle, so closing one twice unpins only once.
+ *
+ * A replaced version is retired. Once no reader has it pinned its price
+ * array is reclaimed and reused for a later change, so a campaign does not
+ * allocate a new array of millions of prices each time.
+ *
+ * Writers are serialized by a lock; readers never wait for them.
+ */
+class VersionedCatalog {
+    private static final int MAX_SPARE_ARRAYS = 2;
+
+    private final Product[] products;
+    private final Currency currency;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<long[]> spareArrays = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spareCount = new AtomicInteger();
+    private final LongAdder reclaimed = new LongAdder();
+    private volatile Version current;
+
+    /**
+     * One published set of prices and the number of readers pinning it.
+     */
+    private final class Version {
+        // Pin count in the low bits; RETIRED once a newer version replaced this one
+        private static final int RETIRED = 1 << 30;
+
+        private final long number;
+        private final long[] prices;
+        private final AtomicInteger state = new AtomicInteger();
+
+        private Version(long number, long[] prices) {
+            this.number = number;
+            this.prices = prices;
+        }
+
+        boolean tryPin() {
+            while (true) {
+                int value = state.get();
+                if ((value & RETIRED) != 0) {
+                    return false;
+                }
+                if (state.compareAndSet(value, value + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void unpin() {
+            if (state.decrementAndGet() == RETIRED) {
+                reclaim(this);
+            }
+        }
+
+        void retire() {
+            if (state.getAndAdd(RETIRED) == 0) {
+                reclaim(this);
+            }
+        }
+    }
+
+    /**
+     * A reader's pin on an immutable version of every price. Close it to unpin;
+     * closing it again does nothing.
+     */
+    final class Snapshot implements AutoCloseable {
+        private final Version pinned;
+        private final long[] prices;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Snapshot(Version pinned) {
+            this.pinned = pinned;
+            this.prices = pinned.prices;
+        }
+
+        public long getVersion() {
+            return pinned.number;
+        }
+
+        public int size() {
+            return products.length;
+        }
+
+        public Product getProduct(int id) {
+            return products[id];
+        }
+
+        public long getPriceMinor(int id) {
+            return prices[id];
+        }
+
+        public Money getPrice(int id) {
+            return Money.ofMinor(prices[id], currency);
+        }
+
+        /**
+         * Total of a cart in this version, with quantities[i] units of product ids[i].
+         */
+        public Money cartTotal(int[] ids, int[] quantities) {
+            long total = 0;
+            for (int i = 0; i < ids.length; i++) {
+                total = Math.addExact(total, Math.multiplyExact(prices[ids[i]], quantities[i]));
+            }
+            return Money.ofMinor(total, currency);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                pinned.unpin();
+            }
+        }
+    }
+
+    public VersionedCatalog(List<? extends Product> products) {
+        this.products = products.toArray(new Product[0]);
+        this.currency = products.isEmpty() ? Money.DEFAULT_CURRENCY : products.get(0).getPrice().getCurrency();
+        long[] prices = new long[this.products.length];
+        for (int id = 0; id < prices.length; id++) {
+            Money price = this.products[id].getPrice();
+            if (!price.getCurrency().equals(currency)) {
+                throw new IllegalArgumentException("All products must be priced in " + currency);
+            }
+            prices[id] = price.getMinorUnits();
+        }
+        this.current = new Version(1, prices);
+    }
+
+    /**
+     * Pins the current snapshot. Use it in try-with-resources so it is unpinned.
+     */
+    public Snapshot pin() {
+        while (true) {
+            Version version = current;
+            if (version.tryPin()) {
+                return new Snapshot(version);
+            }
+            // Retired between the read and the pin: a newer one is already published
+        }
+    }
+
+    public long currentVersion() {
+        return current.number;
+    }
+
+    /**
+     * Applies changes to a copy of the current prices and publishes the result
+     * as a new snapshot. The consumer receives the copy, indexed by product id.
+     *
+     * @return the new version
+     */
+    public long publish(Consumer<long[]> changes) {
+        writeLock.lock();
+        try {
+            Version previous = current;
+            long[] prices = spareArrays.poll();
+            if (prices != null) {
+                spareCount.decrementAndGet();
+                System.arraycopy(previous.prices, 0, prices, 0, prices.length);
+            } else {
+                prices = previous.prices.clone();
+            }
+            try {
+                changes.accept(prices);
+                for (long price : prices) {
+                    if (price < 0) {
+                        throw new IllegalArgumentException("Prices cannot be negative");
+                    }
+                }
+            } catch (RuntimeException e) {
+                // No reader ever saw the array, so it can go straight back to the spares
+                offerSpare(prices);
+                throw e;
+            }
+            Version next = new Version(previous.number + 1, prices);
+            current = next;
+            previous.retire();
+            return next.number;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Discounts the selected products by a percentage, rounded like Product.applyDiscount.
+     *
+     * @return the new version
+     */
+    public long applyDiscount(IntPredicate selected, double percentDiscount) {
+        if (!(percentDiscount > 0 && percentDiscount <= 100)) {
+            throw new IllegalArgumentException("Discount must be more than 0 and at most 100 percent");
+        }
+        return publish(prices -> {
+            for (int id = 0; id < prices.length; id++) {
+                if (selected.test(id)) {
+                    Money price = Money.ofMinor(prices[id], currency);
+                    prices[id] = price.minus(price.percentage(percentDiscount)).getMinorUnits();
+                }
+            }
+        });
+    }
+
+    /**
+     * Price arrays recycled from snapshots nobody pins any more.
+     */
+    public long getReclaimedCount() {
+        return reclaimed.sum();
+    }
+
+    private void reclaim(Version version) {
+        reclaimed.increment();
+        offerSpare(version.prices);
+    }
+
+    private void offerSpare(long[] prices) {
+        // Keep a couple of arrays for the next changes and let the garbage collector have the rest
+        if (spareCount.incrementAndGet() <= MAX_SPARE_ARRAYS) {
+            spareArrays.add(prices);
+        } else {
+            spareCount.decrementAndGet();
+        }
+    }
+}
+
+/**
+ * Readers price carts from pinned snapshots while a writer publishes bulk
+ * price changes over the whole catalog. Each change adds one cent to every
+ * price, so a reader can check that all prices it saw belong to the same
+ * version. Reports publish time, reader throughput and reclaimed arrays.
+ *
+ * Usage: java com.example.javaguide.VersionedCatalogBenchmark [products] [readers] [publishes]
+ */
+class VersionedCatalogBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int publishes = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        SplittableRandom random = new SplittableRandom(5);
+        List<Product> products = new ArrayList<>(size);
+        long[] base = new long[size];
+        for (int i = 0; i < size; i++) {
+            base[i] = 100 + random.nextInt(100_000);
+            products.add(new Product("Product " + i, Money.ofMinor(base[i], Money.DEFAULT_CURRENCY), 10));
+        }
+        VersionedCatalog catalog = new VersionedCatalog(products);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder carts = new LongAdder();
+        LongAdder torn = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            int seed = r;
+            Thread reader = new Thread(() -> {
+                SplittableRandom cartRandom = new SplittableRandom(seed);
+                int[] ids = new int[20];
+                while (running.get()) {
+                    try (VersionedCatalog.Snapshot snapshot = catalog.pin()) {
+                        long offset = snapshot.getVersion() - 1;
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = cartRandom.nextInt(size);
+                            if (snapshot.getPriceMinor(ids[i]) != base[ids[i]] + offset) {
+                                torn.increment();
+                            }
+                        }
+                    }
+                    carts.increment();
+                }
+            });
+            threads.add(reader);
+            reader.start();
+        }
+
+        double totalMillis = 0;
+        double worstMillis = 0;
+        long begin = System.nanoTime();
+        for (int p = 0; p < publishes; p++) {
+            long start = System.nanoTime();
+            catalog.publish(prices -> {
+                for (int id = 0; id < prices.length; id++) {
+                    prices[id]++;
+                }
+            });
+            double millis = (System.nanoTime() - start) / 1e6;
+            totalMillis += millis;
+            worstMillis = Math.max(worstMillis, millis);
+        }
+        long elapsed = System.nanoTime() - begin;
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        out.printf("%,d products, %d publishes: %.1f ms average, %.1f ms worst per publish%n",
+            size, publishes, totalMillis / publishes, worstMillis);
+        out.printf("%d readers: %,.0f carts/s during publishing, %d inconsistent prices, %d arrays reclaimed%n",
+            readers, carts.sum() * 1e9 / elapsed, torn.sum(), catalog.getReclaimedCount());
+
+        Money before = Money.ofMinor(base[0] + publishes, Money.DEFAULT_CURRENCY);
+        long version = catalog.applyDiscount(id -> id % 2 == 0, 15);
+        Product reference = new Product("Reference", before, 1);
+        reference.applyDiscount(15);
+        try (VersionedCatalog.Snapshot snapshot = catalog.pin()) {
+            out.printf("Version %d, 15%% off even ids: product 0 %s -> %s (Product.applyDiscount gives %s)%n",
+                version, before, snapshot.getPrice(0), reference.getPrice());
+        }
+    }
+}